@@ -7,6 +7,8 @@ import java.util.Properties;
 public class ClientConfig {
     private String host;
     private int port;
+    private boolean binary;   // server.protocol=binary (volta a json se o servidor não suportar)
+    private boolean deflate;  // server.compression=deflate (frames grandes comprimidos)
 
     public ClientConfig(String configFilePath) {
         Properties props = new Properties();
@@ -18,6 +20,8 @@ public class ClientConfig {
 
         this.host = props.getProperty("server.host", "localhost");
         this.port = Integer.parseInt(props.getProperty("server.port", "9090")); // default ajustado
+        this.binary = "binary".equalsIgnoreCase(props.getProperty("server.protocol", "json").trim());
+        this.deflate = "deflate".equalsIgnoreCase(props.getProperty("server.compression", "none").trim());
     }
 
     public String getHost() {
@@ -28,8 +32,16 @@ public class ClientConfig {
         return port;
     }
 
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public boolean isDeflate() {
+        return deflate;
+    }
+
     @Override
     public String toString() {
-        return "ClientConfig{host='" + host + "', port=" + port + "}";
+        return "ClientConfig{host='" + host + "', port=" + port + ", binary=" + binary + ", deflate=" + deflate + "}";
     }
 }
@@ -1,18 +1,31 @@
 package client.net;
 
 import client.config.ClientConfig;
+import common.dto.BulkItemResult;
+import common.dto.ChangeEvent;
 import common.dto.Request;
 import common.dto.Response;
-import common.protocol.LineJson;
+import common.dto.StreamFrame;
+import common.model.Patient;
+import common.model.PatientSummary;
+import common.protocol.Wire;
 
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 /**
  * Ligação persistente com timeouts e 1 tentativa de reconexão.
- * Protocol: LineJson (1 request/resposta por linha).
+ * Protocol: LineJson (1 request/resposta por linha) ou binário (server.protocol=binary),
+ * opcionalmente com compressão por frame (server.compression=deflate); se o servidor não
+ * suportar o formato pedido, tenta um mais simples até chegar ao LineJson.
  */
 public class ClientConnection implements Closeable {
 
@@ -26,17 +39,36 @@ public class ClientConnection implements Closeable {
     // Reenvio em caso de I/O falha
     private final int maxRetries = 1;
 
+    // Tamanho de página para LIST_PATIENTS (cada resposta fica limitada)
+    private final int pageSize = 500;
+
+    // Pipelining: requests em voo em sendAll (abaixo do limite por ligação do servidor)
+    private final int pipelineWindow = 16;
+    private long nextRequestId = 1;
+
+    // Itens por request em BULK_* (o servidor aceita até 10000)
+    private final int bulkChunk = 1000;
+
+    // Formato pedido ao servidor; desce para um mais simples se o servidor o recusar
+    private Wire wire;
+
     // Socket/streams actuais
     private Socket socket;
-    private BufferedReader in;
-    private Writer out;
+    private Wire.FrameReader in;
+    private Wire.FrameWriter out;
 
-    // Token de sessão (preenchido após LOGIN bem sucedido)
+    // Token de sessão (preenchido após LOGIN bem sucedido; o servidor pode enviar um renovado)
     private String token;
 
+    // SUBSCRIBE: eventos recebidos entre respostas vão para o listener
+    private volatile Consumer<ChangeEvent> changeListener;
+    private boolean subscribed;
+    private boolean resubscribe; // ligação reaberta: repetir SUBSCRIBE antes do próximo request
+
     public ClientConnection(ClientConfig config) throws IOException {
         this.host = config.getHost();
         this.port = config.getPort();
+        this.wire = Wire.of(config.isBinary(), config.isDeflate());
         openSocket();
     }
 
@@ -45,8 +77,21 @@ public class ClientConnection implements Closeable {
         socket = new Socket();
         socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
         socket.setSoTimeout(soTimeoutMs);
-        in  = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-        out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        InputStream is = new BufferedInputStream(socket.getInputStream());
+        OutputStream os = socket.getOutputStream();
+        if (!wire.request(is, os)) {
+            // servidor antigo: sem compressão e depois LineJson (e daqui em diante)
+            wire = wire.isDeflate() ? Wire.of(wire == Wire.BINARY_DEFLATE, false) : Wire.JSON;
+            openSocket();
+            return;
+        }
+        in  = wire.reader(is);
+        out = wire.writer(os);
+    }
+
+    /** Formato em uso nesta ligação. */
+    public Wire wire() {
+        return wire;
     }
 
     /** LOGIN e guarda token para requests seguintes. */
@@ -71,23 +116,286 @@ public class ClientConnection implements Closeable {
         IOException last = null;
         for (int attempt = 0; attempt <= maxRetries; attempt++) {
             try {
-                LineJson.send(req, out);
-                return LineJson.recv(in, Response.class);
+                if (resubscribe) restoreSubscription();
+                out.write(req);
+                out.flush();
+                return recvResponse();
             } catch (IOException e) {
                 last = e;
                 // tenta reabrir a ligação e reenviar
                 try { openSocket(); } catch (IOException re) { last = re; }
+                resubscribe = subscribed;
             }
         }
         throw last;
     }
 
+    /**
+     * Envia vários requests na mesma ligação sem esperar por cada resposta (pipelining).
+     * Mantém até 'pipelineWindow' em voo; o servidor pode responder fora de ordem e as
+     * respostas são associadas pelo requestId. Devolve as respostas pela ordem dos requests.
+     * Sem reenvio automático: após falha de I/O não se sabe quais foram aplicados.
+     */
+    public List<Response> sendAll(List<Request> reqs) throws IOException {
+        int n = reqs.size();
+        Map<Long, Integer> index = new HashMap<>();
+        Response[] results = new Response[n];
+        try {
+            if (resubscribe) restoreSubscription();
+            int sent = 0, received = 0;
+            while (received < n) {
+                // enche a janela e envia de uma vez
+                while (sent < n && sent - received < pipelineWindow) {
+                    Request req = reqs.get(sent);
+                    if ("STREAM_PATIENTS".equals(req.action))
+                        throw new IllegalArgumentException("STREAM_PATIENTS não pode ser enviado em pipeline.");
+                    if (!"LOGIN".equalsIgnoreCase(req.action) && req.token == null) req.token = this.token;
+                    req.requestId = nextRequestId++;
+                    index.put(req.requestId, sent++);
+                    out.write(req);
+                }
+                out.flush();
+
+                Response r = recvResponse();
+                Integer i = (r == null || r.requestId == null) ? null : index.remove(r.requestId);
+                if (i == null) throw new IOException("Resposta inesperada do servidor (requestId " + (r == null ? null : r.requestId) + ").");
+                results[i] = r;
+                received++;
+            }
+        } catch (IOException e) {
+            try { openSocket(); } catch (IOException ignore) {}
+            resubscribe = subscribed;
+            throw e;
+        }
+        return List.of(results);
+    }
+
+    /**
+     * Lê a próxima resposta, entregando ao listener as notificações que chegarem antes dela.
+     * Um token numa resposta é a renovação da sessão: passa a ser usado nos requests seguintes.
+     */
+    private Response recvResponse() throws IOException {
+        while (true) {
+            Response r = in.read(Response.class);
+            if (r != null && r.token != null && !r.token.isBlank() && this.token != null) this.token = r.token;
+            if (r == null || r.event == null) return r;
+            Consumer<ChangeEvent> l = changeListener;
+            if (l != null) l.accept(r.event);
+        }
+    }
+
+    /** Listener das notificações de SUBSCRIBE (chamado na thread que lê a ligação). */
+    public void setChangeListener(Consumer<ChangeEvent> listener) {
+        this.changeListener = listener;
+    }
+
+    /**
+     * Pede ao servidor notificações de escrita nesta ligação. Devolve a versão actual dos dados.
+     * Os eventos chegam entre respostas e são entregues ao listener à medida que a ligação é lida.
+     */
+    public long subscribe() throws IOException {
+        Request req = new Request();
+        req.action = "SUBSCRIBE";
+        Response resp = send(req);
+        if (!"ok".equals(resp.status)) {
+            throw new IllegalStateException(resp.message != null ? resp.message : "Falha ao subscrever.");
+        }
+        subscribed = true;
+        return resp.version != null ? resp.version : 0L;
+    }
+
+    /** Depois de reconectar: nova subscrição e um resync (eventos perdidos entretanto). */
+    private void restoreSubscription() throws IOException {
+        Request req = new Request();
+        req.action = "SUBSCRIBE";
+        req.token = this.token;
+        out.write(req);
+        out.flush();
+        Response resp = recvResponse();
+        resubscribe = false;
+        Consumer<ChangeEvent> l = changeListener;
+        if (l != null && resp != null && resp.version != null) l.accept(ChangeEvent.resync(resp.version));
+    }
+
+    /** Lista completa, pedida ao servidor em páginas (cursor keyset nome+id). */
+    public List<Patient> listAllPatientsPaged() throws IOException {
+        List<Patient> all = new ArrayList<>();
+        Integer afterId = null;
+        String afterNome = null;
+        do {
+            Response resp = send(Request.listPatientsPage(pageSize, afterId, afterNome));
+            if (!"ok".equals(resp.status) || resp.data == null) {
+                throw new IllegalStateException(resp.message != null ? resp.message : "Falha ao listar pacientes.");
+            }
+            all.addAll(resp.data);
+            afterId = resp.nextAfterId;
+            afterNome = resp.nextAfterNome;
+        } while (afterId != null);
+        return all;
+    }
+
+    /** Resumos de todos os pacientes e a versão dos dados a que correspondem. */
+    public record PatientSummaries(long version, List<PatientSummary> items) {}
+
+    /**
+     * Resumos de todos os pacientes (para tabelas), pedidos em páginas.
+     * Com ifVersion igual à versão actual do servidor devolve null (sem alterações, sem payload).
+     */
+    public PatientSummaries listPatientSummaries(Long ifVersion) throws IOException {
+        List<PatientSummary> all = new ArrayList<>();
+        Integer afterId = null;
+        String afterNome = null;
+        long version = 0;
+        boolean first = true;
+        do {
+            Request req = Request.listSummaries(pageSize, afterId, afterNome);
+            if (first) req.ifVersion = ifVersion;
+            Response resp = send(req);
+            if (first && Boolean.TRUE.equals(resp.notModified)) return null;
+            if (!"ok".equals(resp.status) || resp.summaries == null) {
+                throw new IllegalStateException(resp.message != null ? resp.message : "Falha ao listar pacientes.");
+            }
+            // versão da 1.ª página: se algo mudar entre páginas, o próximo pedido condicional recarrega
+            if (first && resp.version != null) version = resp.version;
+            first = false;
+            all.addAll(resp.summaries);
+            afterId = resp.nextAfterId;
+            afterNome = resp.nextAfterNome;
+        } while (afterId != null);
+        return new PatientSummaries(version, all);
+    }
+
+    /**
+     * Alterações desde 'version' (PATIENT_CHANGES). A resposta traz notModified, resync
+     * (recarregar tudo) ou summaries (criados/alterados) + deletedIds, e a nova versão.
+     */
+    public Response changesSince(long version) throws IOException {
+        Response resp = send(Request.changesSince(version));
+        if (!"ok".equals(resp.status)) {
+            throw new IllegalStateException(resp.message != null ? resp.message : "Falha ao sincronizar.");
+        }
+        return resp;
+    }
+
+    /**
+     * BULK_ADD / BULK_UPDATE / BULK_DELETE: divide a lista em lotes de 'bulkChunk' (uma transacção
+     * cada no servidor), enviados em pipeline. Devolve um resultado por paciente, pela ordem da lista.
+     */
+    public List<BulkItemResult> bulk(String action, List<Patient> patients) throws IOException {
+        List<Request> reqs = new ArrayList<>();
+        for (int from = 0; from < patients.size(); from += bulkChunk) {
+            reqs.add(Request.bulk(action, patients.subList(from, Math.min(patients.size(), from + bulkChunk))));
+        }
+        List<BulkItemResult> all = new ArrayList<>(patients.size());
+        int offset = 0;
+        for (Response resp : sendAll(reqs)) {
+            if (!"ok".equals(resp.status) || resp.results == null) {
+                throw new IllegalStateException(resp.message != null ? resp.message : "Falha no lote.");
+            }
+            for (BulkItemResult r : resp.results) {
+                r.index += offset;
+                all.add(r);
+            }
+            offset += resp.results.size();
+        }
+        return all;
+    }
+
+    /** Registo completo de um paciente (GET_PATIENT). */
+    public Patient getPatient(int id) throws IOException {
+        Response resp = send(Request.get(id));
+        if (!"ok".equals(resp.status) || resp.patient == null) {
+            throw new IllegalStateException(resp.message != null ? resp.message : "Paciente não encontrado.");
+        }
+        return resp.patient;
+    }
+
+    /** Lista completa via STREAM_PATIENTS (recarregamentos/exportações). */
+    public List<Patient> listAllPatients() throws IOException {
+        List<Patient> all = new ArrayList<>();
+        try (PatientStream it = streamPatients()) {
+            while (it.hasNext()) all.add(it.next());
+        }
+        return all;
+    }
+
+    /**
+     * Pede STREAM_PATIENTS e devolve um iterador que lê um paciente de cada vez do socket.
+     * A ligação fica ocupada até o iterador chegar ao fim ou ser fechado (close() consome o resto).
+     * Sem reenvio automático: um stream interrompido não pode ser retomado.
+     */
+    public PatientStream streamPatients() throws IOException {
+        Request req = new Request();
+        req.action = "STREAM_PATIENTS";
+        req.token = this.token;
+        Response head;
+        try {
+            out.write(req);
+            out.flush();
+            head = recvResponse();
+        } catch (IOException e) {
+            try { openSocket(); } catch (IOException ignore) {}
+            throw e;
+        }
+        if (!"ok".equals(head.status)) {
+            throw new IllegalStateException(head.message != null ? head.message : "Falha ao listar pacientes.");
+        }
+        return new PatientStream();
+    }
+
+    /** Iterador sobre os frames de um STREAM_PATIENTS em curso. */
+    public final class PatientStream implements Iterator<Patient>, Closeable {
+        private StreamFrame next;
+        private boolean done;
+        private int received;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) return true;
+            if (done) return false;
+            StreamFrame f;
+            try {
+                f = in.read(StreamFrame.class);
+            } catch (IOException e) {
+                done = true;
+                closeQuiet();
+                throw new UncheckedIOException(e);
+            }
+            if (f == null || Boolean.TRUE.equals(f.end)) {
+                done = true;
+                if (f != null && f.error != null) throw new IllegalStateException(f.error);
+                if (f != null && f.count != null && f.count != received)
+                    throw new IllegalStateException("Stream incompleto: " + received + "/" + f.count);
+                return false;
+            }
+            next = f;
+            return true;
+        }
+
+        @Override
+        public Patient next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Patient p = next.patient;
+            next = null;
+            received++;
+            return p;
+        }
+
+        /** Consome o resto do stream para a ligação poder ser reutilizada. */
+        @Override
+        public void close() {
+            try {
+                while (hasNext()) next();
+            } catch (RuntimeException ignore) {
+                // erro já reportado ou ligação reaberta
+            }
+        }
+    }
+
     @Override
     public void close() throws IOException { closeQuiet(); }
 
     private void closeQuiet() {
-        try { if (in != null) in.close(); } catch (Exception ignore) {}
-        try { if (out != null) out.close(); } catch (Exception ignore) {}
         try { if (socket != null) socket.close(); } catch (Exception ignore) {}
         in = null; out = null; socket = null;
     }
@@ -132,15 +132,10 @@ public class ClientGUI {
 
     private void listarPacientes(ActionEvent e) {
         try {
-            Request req = Request.listPatients();
-            Response resp = conn.send(req);
-
-            if ("ok".equals(resp.status) && resp.data != null) {
-                java.util.List<Patient> pacientes = resp.data;
-                new PatientListGUI(pacientes, conn);
-            } else {
-                JOptionPane.showMessageDialog(frame, "Não foi possível carregar a lista agora.");
-            }
+            new PatientListGUI(conn.listPatientSummaries(null), conn);
+            this.frame.repaint();
+        } catch (IllegalStateException ex) {
+            JOptionPane.showMessageDialog(frame, "Não foi possível carregar a lista agora.");
             this.frame.repaint();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(frame, "Ocorreu um erro ao listar. Tente novamente.");
@@ -4,6 +4,7 @@ import client.net.ClientConnection;
 import common.dto.Request;
 import common.dto.Response;
 import common.model.Patient;
+import common.model.PatientSummary;
 
 import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
@@ -23,11 +24,15 @@ public class PatientListGUI {
     private final TableRowSorter<PacientesTableModel> sorter;
     private final ClientConnection conn;
 
-    private final List<Patient> pacientes;
+    // Só resumos (sem endereço/histórico); o registo completo vem por GET_PATIENT
+    private final List<PatientSummary> pacientes;
+    // Versão dos dados da lista actual (pedido condicional ao recarregar)
+    private long versao;
 
-    public PatientListGUI(List<Patient> pacientesIniciais, ClientConnection conn) {
+    public PatientListGUI(ClientConnection.PatientSummaries inicial, ClientConnection conn) {
         this.conn = conn;
-        this.pacientes = new ArrayList<>(pacientesIniciais);
+        this.pacientes = new ArrayList<>(inicial.items());
+        this.versao = inicial.version();
         this.model = new PacientesTableModel(this.pacientes);
 
         frame = new JFrame("Lista de Pacientes");
@@ -153,10 +158,27 @@ public class PatientListGUI {
         int viewRow = tabela.getSelectedRow();
         if (viewRow < 0) { JOptionPane.showMessageDialog(frame, "Seleccione um paciente."); return; }
         int modelRow = tabela.convertRowIndexToModel(viewRow);
-        Patient p = pacientes.get(modelRow);
+        Patient p = carregarCompleto(pacientes.get(modelRow));
+        if (p == null) return;
         new PatientDetailsDialog(frame, p).setVisible(true);
     }
 
+    /** Obtém o registo completo (GET_PATIENT); mostra o erro e devolve null se falhar. */
+    private Patient carregarCompleto(PatientSummary s) {
+        if (conn == null) {
+            JOptionPane.showMessageDialog(frame, "Ligação ao servidor indisponível nesta janela.",
+                    "Aviso", JOptionPane.WARNING_MESSAGE);
+            return null;
+        }
+        try {
+            return conn.getPatient(s.id);
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(frame, "Não foi possível obter o paciente: " + ex.getMessage(),
+                    "Erro", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+
     private void editarSelecionado() {
         if (conn == null) {
             JOptionPane.showMessageDialog(frame, "Ligação ao servidor indisponível nesta janela.",
@@ -166,7 +188,8 @@ public class PatientListGUI {
         int viewRow = tabela.getSelectedRow();
         if (viewRow < 0) { JOptionPane.showMessageDialog(frame, "Seleccione um paciente para editar."); return; }
         int modelRow = tabela.convertRowIndexToModel(viewRow);
-        Patient p = pacientes.get(modelRow);
+        Patient p = carregarCompleto(pacientes.get(modelRow));
+        if (p == null) return;
 
         new PatientEditGUI(frame, conn, p).setVisible(true);
         recarregar();
@@ -176,7 +199,7 @@ public class PatientListGUI {
         int viewRow = tabela.getSelectedRow();
         if (viewRow < 0) { JOptionPane.showMessageDialog(frame, "Seleccione um paciente para remover."); return; }
         int modelRow = tabela.convertRowIndexToModel(viewRow);
-        Patient p = pacientes.get(modelRow);
+        PatientSummary p = pacientes.get(modelRow);
 
         String dataIso = (p.dataNascimento != null) ? p.dataNascimento.toString() : "";
         int opt = JOptionPane.showConfirmDialog(
@@ -191,7 +214,8 @@ public class PatientListGUI {
         try {
             Request req = new Request();
             req.action = "DELETE_PATIENT";
-            req.patient = p;
+            req.patient = new Patient();
+            req.patient.id = p.id;
             Response resp = conn.send(req);
 
             if ("ok".equals(resp.status)) {
@@ -215,28 +239,35 @@ public class PatientListGUI {
             return;
         }
         try {
-            Request req = Request.listPatients();
-            Response resp = conn.send(req);
+            Response delta = conn.changesSince(versao);
+            if (Boolean.TRUE.equals(delta.notModified)) {
+                JOptionPane.showMessageDialog(frame,
+                        "Lista actualizada: " + pacientes.size() + " registos (sem alterações).");
+                return;
+            }
 
-            if ("ok".equals(resp.status) && resp.data != null) {
-                int antes = pacientes.size();
+            if (Boolean.TRUE.equals(delta.resync)) {
+                // registo de alterações podado ou delta demasiado grande: recarga completa
+                ClientConnection.PatientSummaries novos = conn.listPatientSummaries(null);
                 pacientes.clear();
-                pacientes.addAll(resp.data);
+                pacientes.addAll(novos.items());
+                versao = novos.version();
                 model.fireTableDataChanged();
-
-                // manter ordenação por ID asc
-                sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.ASCENDING)));
-
-                tabela.revalidate();
-                tabela.repaint();
-                JOptionPane.showMessageDialog(frame,
-                        "Lista actualizada: " + pacientes.size() + " registos"
-                                + (pacientes.size() == antes ? " (sem alterações)." : "."));
             } else {
-                JOptionPane.showMessageDialog(frame,
-                        "Falha ao recarregar: " + resp.message,
-                        "Aviso", JOptionPane.WARNING_MESSAGE);
+                aplicarDelta(delta);
             }
+
+            // manter ordenação por ID asc
+            sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.ASCENDING)));
+
+            tabela.revalidate();
+            tabela.repaint();
+            JOptionPane.showMessageDialog(frame,
+                    "Lista actualizada: " + pacientes.size() + " registos.");
+        } catch (IllegalStateException ex) {
+            JOptionPane.showMessageDialog(frame,
+                    "Falha ao recarregar: " + ex.getMessage(),
+                    "Aviso", JOptionPane.WARNING_MESSAGE);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(frame,
                     "Erro ao recarregar: " + ex.getMessage(),
@@ -244,19 +275,49 @@ public class PatientListGUI {
         }
     }
 
+    /** Aplica só as linhas alteradas: remoções primeiro, depois actualizações e inserções. */
+    private void aplicarDelta(Response delta) {
+        if (delta.deletedIds != null && !delta.deletedIds.isEmpty()) {
+            Set<Integer> removidos = new HashSet<>(delta.deletedIds);
+            for (int i = pacientes.size() - 1; i >= 0; i--) {
+                if (removidos.contains(pacientes.get(i).id)) {
+                    pacientes.remove(i);
+                    model.fireTableRowsDeleted(i, i);
+                }
+            }
+        }
+        if (delta.summaries != null && !delta.summaries.isEmpty()) {
+            Map<Integer, Integer> indice = new HashMap<>();
+            for (int i = 0; i < pacientes.size(); i++) indice.put(pacientes.get(i).id, i);
+            for (PatientSummary s : delta.summaries) {
+                Integer i = indice.get(s.id);
+                if (i != null) {
+                    pacientes.set(i, s);
+                    model.fireTableRowsUpdated(i, i);
+                } else {
+                    pacientes.add(s);
+                    int n = pacientes.size() - 1;
+                    indice.put(s.id, n);
+                    model.fireTableRowsInserted(n, n);
+                }
+            }
+        }
+        if (delta.version != null) versao = delta.version;
+    }
+
     // ===== TableModel =====
     private static class PacientesTableModel extends AbstractTableModel {
         private final String[] colunas = { "ID", "Nome", "Idade", "BI", "Telefone", "Email", "Plano de Saúde", "Data Nascimento" };
-        private final List<Patient> data;
+        private final List<PatientSummary> data;
 
-        PacientesTableModel(List<Patient> data) { this.data = data; }
+        PacientesTableModel(List<PatientSummary> data) { this.data = data; }
         @Override public int getRowCount() { return data == null ? 0 : data.size(); }
         @Override public int getColumnCount() { return colunas.length; }
         @Override public String getColumnName(int column) { return colunas[column]; }
         @Override public boolean isCellEditable(int r, int c) { return false; }
 
         @Override public Object getValueAt(int rowIndex, int columnIndex) {
-            Patient p = data.get(rowIndex);
+            PatientSummary p = data.get(rowIndex);
             return switch (columnIndex) {
                 case 0 -> p.id; // Integer (facilita sort numérico)
                 case 1 -> p.nome;
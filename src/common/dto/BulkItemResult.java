@@ -0,0 +1,34 @@
+package common.dto;
+
+import java.io.Serializable;
+
+/** Resultado de um item de BULK_ADD / BULK_UPDATE / BULK_DELETE (mesma posição que no request). */
+public class BulkItemResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String CREATED = "created";
+    public static final String EXISTS = "exists";        // BULK_ADD: já havia (nome + data de nascimento)
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+    public static final String NOT_FOUND = "not_found";
+    public static final String INVALID = "invalid";      // rejeitado na validação; message diz porquê
+
+    public int index;
+    public String status;
+    public Integer id;
+    public String message;
+
+    public static BulkItemResult of(int index, String status, Integer id, String message) {
+        BulkItemResult r = new BulkItemResult();
+        r.index = index;
+        r.status = status;
+        r.id = id;
+        r.message = message;
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + index + " " + status + (id != null ? " id=" + id : "") + (message != null ? " (" + message + ")" : "");
+    }
+}
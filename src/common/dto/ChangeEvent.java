@@ -0,0 +1,39 @@
+package common.dto;
+
+import java.io.Serializable;
+
+/**
+ * Notificação enviada pelo servidor a quem fez SUBSCRIBE (dentro de Response.event).
+ * Compacta: só o tipo, o id afectado e a versão dos dados depois da escrita.
+ * O cliente obtém os dados com PATIENT_CHANGES desde a versão que já tem.
+ */
+public class ChangeEvent implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+    /** Eventos perdidos (terminal lento): recarregar tudo ou pedir PATIENT_CHANGES. */
+    public static final String RESYNC = "resync";
+
+    public String type;
+    public Integer id;           // null em resync
+    public long version;
+
+    public static ChangeEvent of(String type, Integer id, long version) {
+        ChangeEvent e = new ChangeEvent();
+        e.type = type;
+        e.id = id;
+        e.version = version;
+        return e;
+    }
+
+    public static ChangeEvent resync(long version) {
+        return of(RESYNC, null, version);
+    }
+
+    @Override
+    public String toString() {
+        return type + (id != null ? " #" + id : "") + " @v" + version;
+    }
+}
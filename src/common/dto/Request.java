@@ -1,6 +1,7 @@
 package common.dto;
 
 import java.io.Serializable;
+import java.util.List;
 import common.model.Patient;
 
 public class Request implements Serializable {
@@ -12,11 +13,29 @@ public class Request implements Serializable {
     
     public Patient patient;
 
+    // BULK_ADD / BULK_UPDATE / BULK_DELETE: vários pacientes numa só transacção (DELETE usa só o id)
+    public List<Patient> patients;
+
     
     public String username;     
     public String password;     
     public String token;        
 
+    // Paginação keyset de LIST_PATIENTS (limit nulo = lista completa)
+    public Integer limit;
+    public Integer afterId;
+    public String afterNome;
+
+    // Pedido condicional: se a versão dos dados não mudou, a resposta vem sem payload
+    public Long ifVersion;
+
+    // PATIENT_CHANGES: alterações depois desta versão
+    public Long sinceVersion;
+
+    // Pipelining: com requestId o servidor pode processar vários requests da mesma ligação
+    // em paralelo e responder fora de ordem; cada frame da resposta traz o mesmo requestId
+    public Long requestId;
+
     
     public static Request ping() {
         Request r = new Request();
@@ -37,6 +56,55 @@ public class Request implements Serializable {
         return r;
     }
 
+    /** Página de até 'limit' pacientes a seguir ao cursor (null/null = primeira página). */
+    public static Request listPatientsPage(int limit, Integer afterId, String afterNome) {
+        Request r = listPatients();
+        r.limit = limit;
+        r.afterId = afterId;
+        r.afterNome = afterNome;
+        return r;
+    }
+
+    /** Página de resumos (limit nulo = todos). */
+    public static Request listSummaries(Integer limit, Integer afterId, String afterNome) {
+        Request r = new Request();
+        r.action = "LIST_PATIENT_SUMMARIES";
+        r.limit = limit;
+        r.afterId = afterId;
+        r.afterNome = afterNome;
+        return r;
+    }
+
+    public static Request changesSince(long version) {
+        Request r = new Request();
+        r.action = "PATIENT_CHANGES";
+        r.sinceVersion = version;
+        return r;
+    }
+
+    public static Request bulk(String action, List<Patient> patients) {
+        Request r = new Request();
+        r.action = action;
+        r.patients = patients;
+        return r;
+    }
+
+    public static Request get(int id) {
+        Request r = new Request();
+        r.action = "GET_PATIENT";
+        r.patient = new Patient();
+        r.patient.id = id;
+        return r;
+    }
+
+    /** Cria ou actualiza pela chave (nome + data de nascimento). */
+    public static Request upsert(Patient p) {
+        Request r = new Request();
+        r.action = "UPSERT_PATIENT";
+        r.patient = p;
+        return r;
+    }
+
     public static Request update(Patient p) {
         Request r = new Request();
         r.action = "UPDATE_PATIENT";
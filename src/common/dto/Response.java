@@ -3,14 +3,38 @@ package common.dto;
 import java.io.Serializable;
 import java.util.List;
 import common.model.Patient;
+import common.model.PatientSummary;
 
 public class Response implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    public String status;        // "ok" | "error"
+    public String status;        // "ok" | "error" | "event"
     public String message;       // mensagem opcional
     public List<Patient> data;   // lista (listPatients)
+    public List<PatientSummary> summaries; // lista leve (LIST_PATIENT_SUMMARIES)
+    public Patient patient;      // registo completo (GET_PATIENT)
     public String token;         // devolvido no LOGIN
+    public List<BulkItemResult> results; // BULK_*: um resultado por item, pela ordem do request
+    public Long requestId;       // eco de Request.requestId (pipelining)
+
+    // ADD_PATIENT / UPSERT_PATIENT: "created" | "updated" | "exists" e o id do registo
+    public String outcome;
+    public Integer id;
+
+    // Versão dos dados (listas); notModified=true quando coincide com Request.ifVersion (sem payload)
+    public Long version;
+    public Boolean notModified;
+
+    // PATIENT_CHANGES: 'summaries' traz os criados/alterados; resync=true pede recarga completa
+    public List<Integer> deletedIds;
+    public Boolean resync;
+
+    // Notificação assíncrona (depois de SUBSCRIBE); chega sempre entre respostas, nunca a meio de uma
+    public ChangeEvent event;
+
+    // Cursor da página seguinte (LIST_PATIENTS paginado); ambos null = última página
+    public Integer nextAfterId;
+    public String nextAfterNome;
 
     public static Response okMsg(String msg) {
         Response r = new Response();
@@ -19,6 +43,20 @@ public class Response implements Serializable {
         return r;
     }
 
+    public static Response notModified(long version) {
+        Response r = okMsg("not_modified");
+        r.version = version;
+        r.notModified = true;
+        return r;
+    }
+
+    public static Response event(ChangeEvent e) {
+        Response r = new Response();
+        r.status = "event";
+        r.event = e;
+        return r;
+    }
+
     public static Response error(String msg) {
         Response r = new Response();
         r.status = "error";
@@ -0,0 +1,32 @@
+package common.dto;
+
+import java.io.Serializable;
+import common.model.Patient;
+
+/**
+ * Frame de uma resposta em streaming (NDJSON): depois da Response inicial,
+ * o servidor envia um frame por paciente e termina com end=true.
+ */
+public class StreamFrame implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public Patient patient;      // frame de dados
+    public Boolean end;          // true no frame final
+    public Integer count;        // nº de pacientes enviados (frame final)
+    public String error;         // preenchido se o stream foi interrompido no servidor
+    public Long requestId;       // eco de Request.requestId (pipelining)
+
+    public static StreamFrame of(Patient p) {
+        StreamFrame f = new StreamFrame();
+        f.patient = p;
+        return f;
+    }
+
+    public static StreamFrame end(int count, String error) {
+        StreamFrame f = new StreamFrame();
+        f.end = true;
+        f.count = count;
+        f.error = error;
+        return f;
+    }
+}
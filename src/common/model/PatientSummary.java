@@ -0,0 +1,42 @@
+package common.model;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Projecção leve de Patient para listas (sem endereço nem histórico médico).
+ * O registo completo obtém-se com GET_PATIENT.
+ */
+public class PatientSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public Integer id;
+    public String nome;
+    public int idade;
+    public String bi;
+    public String telefone;
+    public String email;
+    public String planoSaude;
+    public LocalDate dataNascimento;
+
+    // Construtor vazio (requisito para Gson)
+    public PatientSummary() {}
+
+    public PatientSummary(Integer id, String nome, int idade, String bi, String telefone,
+                          String email, String planoSaude, LocalDate dataNascimento) {
+        this.id = id;
+        this.nome = nome;
+        this.idade = idade;
+        this.bi = bi;
+        this.telefone = telefone;
+        this.email = email;
+        this.planoSaude = planoSaude;
+        this.dataNascimento = dataNascimento;
+    }
+
+    @Override
+    public String toString() {
+        String idPart = (id != null ? "#" + id + " " : "");
+        return idPart + nome + " | Idade: " + idade + " | BI: " + bi + " | Telefone: " + telefone;
+    }
+}
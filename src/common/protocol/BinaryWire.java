@@ -0,0 +1,582 @@
+package common.protocol;
+
+import common.dto.BulkItemResult;
+import common.dto.ChangeEvent;
+import common.dto.Request;
+import common.dto.Response;
+import common.dto.StreamFrame;
+import common.model.Patient;
+import common.model.PatientSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Protocolo binário compacto, alternativa ao LineJson (negociado por ligação, ver Wire).
+ * - Frame: comprimento (varint) + payload
+ * - Payload: campos (tag << 3 | tipo) seguidos do valor; campos nulos não são enviados
+ * - Tipos: VARINT (inteiros em zigzag, booleanos, datas em epoch-day) e LEN (texto UTF-8,
+ *   objectos e listas, com o comprimento à cabeça); tags desconhecidas são saltadas
+ * - Listas vazias distinguem-se de null (campo presente com comprimento 0)
+ * Codificação escrita à mão para Request, Response, StreamFrame e os tipos que transportam;
+ * as tags de cada classe não podem mudar de significado (só acrescentar novas).
+ */
+public final class BinaryWire {
+
+    private static final int VARINT = 0;
+    private static final int LEN = 2;
+
+    /** Tag de Response.requestId (também usada por withRequestId). */
+    private static final int RESPONSE_REQUEST_ID = 8;
+
+    private BinaryWire() {}
+
+    // ===== frames =====
+
+    /** Frame completo (comprimento + payload) de um Request, Response ou StreamFrame. */
+    public static byte[] encode(Object frame) {
+        Out out = new Out(256);
+        int start = out.begin();
+        writeFrame(out, frame);
+        out.end(start);
+        return out.toByteArray();
+    }
+
+    /** Só o payload (sem comprimento), para enquadramentos com compressão. */
+    public static byte[] encodePayload(Object frame) {
+        Out out = new Out(256);
+        writeFrame(out, frame);
+        return out.toByteArray();
+    }
+
+    private static void writeFrame(Out out, Object frame) {
+        if (frame instanceof Request r) writeRequest(out, r);
+        else if (frame instanceof Response r) writeResponse(out, r);
+        else if (frame instanceof StreamFrame f) writeStreamFrame(out, f);
+        else throw new IllegalArgumentException("Tipo sem codificação binária: " + frame);
+    }
+
+    /** Descodifica um payload já enquadrado (sem o comprimento). */
+    public static <T> T decode(byte[] payload, Class<T> type) {
+        return decode(payload, 0, payload.length, type);
+    }
+
+    public static <T> T decode(byte[] buf, int off, int len, Class<T> type) {
+        In in = new In(buf, off, off + len);
+        Object o;
+        if (type == Request.class) o = readRequest(in);
+        else if (type == Response.class) o = readResponse(in);
+        else if (type == StreamFrame.class) o = readStreamFrame(in);
+        else throw new IllegalArgumentException("Tipo sem codificação binária: " + type.getName());
+        return type.cast(o);
+    }
+
+    /** Frame de uma Response com requestId acrescentado (frames em cache: o array original não muda). */
+    public static byte[] withRequestId(byte[] frame, long requestId) {
+        In in = new In(frame, 0, frame.length);
+        int len = in.varint();
+        Out out = new Out(frame.length + 12);
+        int start = out.begin();
+        out.putLong(RESPONSE_REQUEST_ID, requestId);
+        out.bytes(frame, in.pos, len);
+        out.end(start);
+        return out.toByteArray();
+    }
+
+    // ===== Request =====
+
+    private static void writeRequest(Out o, Request r) {
+        o.putString(1, r.action);
+        o.putMessage(2, r.patient);
+        o.putPatients(3, r.patients);
+        o.putString(4, r.username);
+        o.putString(5, r.password);
+        o.putString(6, r.token);
+        o.putInt(7, r.limit);
+        o.putInt(8, r.afterId);
+        o.putString(9, r.afterNome);
+        o.putLong(10, r.ifVersion);
+        o.putLong(11, r.sinceVersion);
+        o.putLong(12, r.requestId);
+    }
+
+    private static Request readRequest(In in) {
+        Request r = new Request();
+        while (in.more()) {
+            int key = in.varint();
+            switch (key >>> 3) {
+                case 1 -> r.action = in.string();
+                case 2 -> r.patient = readPatient(in.sub());
+                case 3 -> r.patients = readPatients(in.sub());
+                case 4 -> r.username = in.string();
+                case 5 -> r.password = in.string();
+                case 6 -> r.token = in.string();
+                case 7 -> r.limit = in.sint();
+                case 8 -> r.afterId = in.sint();
+                case 9 -> r.afterNome = in.string();
+                case 10 -> r.ifVersion = in.slong();
+                case 11 -> r.sinceVersion = in.slong();
+                case 12 -> r.requestId = in.slong();
+                default -> in.skip(key & 7);
+            }
+        }
+        return r;
+    }
+
+    // ===== Response =====
+
+    private static void writeResponse(Out o, Response r) {
+        o.putString(1, r.status);
+        o.putString(2, r.message);
+        o.putPatients(3, r.data);
+        if (r.summaries != null) {
+            int list = o.beginField(4);
+            for (PatientSummary s : r.summaries) {
+                int item = o.begin();
+                if (s != null) writeSummary(o, s);
+                o.end(item);
+            }
+            o.end(list);
+        }
+        o.putMessage(5, r.patient);
+        o.putString(6, r.token);
+        if (r.results != null) {
+            int list = o.beginField(7);
+            for (BulkItemResult b : r.results) {
+                int item = o.begin();
+                if (b != null) writeBulkResult(o, b);
+                o.end(item);
+            }
+            o.end(list);
+        }
+        o.putLong(RESPONSE_REQUEST_ID, r.requestId);
+        o.putLong(9, r.version);
+        o.putBool(10, r.notModified);
+        if (r.deletedIds != null) {
+            int list = o.beginField(11);
+            for (Integer id : r.deletedIds) o.varlong(zigzag(id));
+            o.end(list);
+        }
+        o.putBool(12, r.resync);
+        if (r.event != null) {
+            int ev = o.beginField(13);
+            o.putString(1, r.event.type);
+            o.putInt(2, r.event.id);
+            o.putLong(3, r.event.version);
+            o.end(ev);
+        }
+        o.putInt(14, r.nextAfterId);
+        o.putString(15, r.nextAfterNome);
+        o.putString(16, r.outcome);
+        o.putInt(17, r.id);
+    }
+
+    private static Response readResponse(In in) {
+        Response r = new Response();
+        while (in.more()) {
+            int key = in.varint();
+            switch (key >>> 3) {
+                case 1 -> r.status = in.string();
+                case 2 -> r.message = in.string();
+                case 3 -> r.data = readPatients(in.sub());
+                case 4 -> {
+                    In list = in.sub();
+                    r.summaries = new ArrayList<>();
+                    while (list.more()) r.summaries.add(readSummary(list.sub()));
+                }
+                case 5 -> r.patient = readPatient(in.sub());
+                case 6 -> r.token = in.string();
+                case 7 -> {
+                    In list = in.sub();
+                    r.results = new ArrayList<>();
+                    while (list.more()) r.results.add(readBulkResult(list.sub()));
+                }
+                case RESPONSE_REQUEST_ID -> r.requestId = in.slong();
+                case 9 -> r.version = in.slong();
+                case 10 -> r.notModified = in.bool();
+                case 11 -> {
+                    In list = in.sub();
+                    r.deletedIds = new ArrayList<>();
+                    while (list.more()) r.deletedIds.add(list.sint());
+                }
+                case 12 -> r.resync = in.bool();
+                case 13 -> r.event = readChangeEvent(in.sub());
+                case 14 -> r.nextAfterId = in.sint();
+                case 15 -> r.nextAfterNome = in.string();
+                case 16 -> r.outcome = in.string();
+                case 17 -> r.id = in.sint();
+                default -> in.skip(key & 7);
+            }
+        }
+        return r;
+    }
+
+    private static ChangeEvent readChangeEvent(In in) {
+        ChangeEvent e = new ChangeEvent();
+        while (in.more()) {
+            int key = in.varint();
+            switch (key >>> 3) {
+                case 1 -> e.type = in.string();
+                case 2 -> e.id = in.sint();
+                case 3 -> e.version = in.slong();
+                default -> in.skip(key & 7);
+            }
+        }
+        return e;
+    }
+
+    private static void writeBulkResult(Out o, BulkItemResult b) {
+        o.putInt(1, b.index);
+        o.putString(2, b.status);
+        o.putInt(3, b.id);
+        o.putString(4, b.message);
+    }
+
+    private static BulkItemResult readBulkResult(In in) {
+        BulkItemResult b = new BulkItemResult();
+        while (in.more()) {
+            int key = in.varint();
+            switch (key >>> 3) {
+                case 1 -> b.index = in.sint();
+                case 2 -> b.status = in.string();
+                case 3 -> b.id = in.sint();
+                case 4 -> b.message = in.string();
+                default -> in.skip(key & 7);
+            }
+        }
+        return b;
+    }
+
+    // ===== StreamFrame =====
+
+    private static void writeStreamFrame(Out o, StreamFrame f) {
+        o.putMessage(1, f.patient);
+        o.putBool(2, f.end);
+        o.putInt(3, f.count);
+        o.putString(4, f.error);
+        o.putLong(5, f.requestId);
+    }
+
+    private static StreamFrame readStreamFrame(In in) {
+        StreamFrame f = new StreamFrame();
+        while (in.more()) {
+            int key = in.varint();
+            switch (key >>> 3) {
+                case 1 -> f.patient = readPatient(in.sub());
+                case 2 -> f.end = in.bool();
+                case 3 -> f.count = in.sint();
+                case 4 -> f.error = in.string();
+                case 5 -> f.requestId = in.slong();
+                default -> in.skip(key & 7);
+            }
+        }
+        return f;
+    }
+
+    // ===== Patient / PatientSummary =====
+
+    private static void writePatient(Out o, Patient p) {
+        o.putInt(1, p.id);
+        o.putString(2, p.nome);
+        o.putInt(3, p.idade);
+        o.putString(4, p.bi);
+        o.putString(5, p.telefone);
+        o.putString(6, p.endereco);
+        o.putString(7, p.email);
+        o.putString(8, p.genero);
+        o.putDate(9, p.dataNascimento);
+        o.putString(10, p.historicoMedico);
+        o.putString(11, p.planoSaude);
+    }
+
+    private static Patient readPatient(In in) {
+        Patient p = new Patient();
+        while (in.more()) {
+            int key = in.varint();
+            switch (key >>> 3) {
+                case 1 -> p.id = in.sint();
+                case 2 -> p.nome = in.string();
+                case 3 -> p.idade = in.sint();
+                case 4 -> p.bi = in.string();
+                case 5 -> p.telefone = in.string();
+                case 6 -> p.endereco = in.string();
+                case 7 -> p.email = in.string();
+                case 8 -> p.genero = in.string();
+                case 9 -> p.dataNascimento = in.date();
+                case 10 -> p.historicoMedico = in.string();
+                case 11 -> p.planoSaude = in.string();
+                default -> in.skip(key & 7);
+            }
+        }
+        return p;
+    }
+
+    private static List<Patient> readPatients(In list) {
+        List<Patient> out = new ArrayList<>();
+        while (list.more()) out.add(readPatient(list.sub()));
+        return out;
+    }
+
+    private static void writeSummary(Out o, PatientSummary s) {
+        o.putInt(1, s.id);
+        o.putString(2, s.nome);
+        o.putInt(3, s.idade);
+        o.putString(4, s.bi);
+        o.putString(5, s.telefone);
+        o.putString(6, s.email);
+        o.putString(7, s.planoSaude);
+        o.putDate(8, s.dataNascimento);
+    }
+
+    private static PatientSummary readSummary(In in) {
+        PatientSummary s = new PatientSummary();
+        while (in.more()) {
+            int key = in.varint();
+            switch (key >>> 3) {
+                case 1 -> s.id = in.sint();
+                case 2 -> s.nome = in.string();
+                case 3 -> s.idade = in.sint();
+                case 4 -> s.bi = in.string();
+                case 5 -> s.telefone = in.string();
+                case 6 -> s.email = in.string();
+                case 7 -> s.planoSaude = in.string();
+                case 8 -> s.dataNascimento = in.date();
+                default -> in.skip(key & 7);
+            }
+        }
+        return s;
+    }
+
+    // ===== primitivas =====
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static int varintSize(int v) {
+        int n = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    /** Buffer de escrita que cresce; comprimentos dos campos LEN preenchidos em end(). */
+    private static final class Out {
+        byte[] buf;
+        int len;
+
+        Out(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+
+        void varint(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        void varlong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        void bytes(byte[] b, int off, int n) {
+            ensure(n);
+            System.arraycopy(b, off, buf, len, n);
+            len += n;
+        }
+
+        /** Reserva 1 byte para o comprimento e devolve o início do corpo. */
+        int begin() {
+            ensure(1);
+            len++;
+            return len;
+        }
+
+        int beginField(int field) {
+            varint(field << 3 | LEN);
+            return begin();
+        }
+
+        /** Escreve o comprimento do corpo iniciado em 'start'; desloca-o se não couber num byte. */
+        void end(int start) {
+            int n = len - start;
+            int size = varintSize(n);
+            if (size > 1) {
+                ensure(size - 1);
+                System.arraycopy(buf, start, buf, start + size - 1, n);
+                len += size - 1;
+            }
+            int p = start - 1;
+            while ((n & ~0x7F) != 0) {
+                buf[p++] = (byte) ((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            buf[p] = (byte) n;
+        }
+
+        void putString(int field, String s) {
+            if (s == null) return;
+            varint(field << 3 | LEN);
+            // ASCII (o caso comum) sem array intermédio
+            int n = s.length();
+            boolean ascii = true;
+            for (int i = 0; i < n && ascii; i++) ascii = s.charAt(i) < 0x80;
+            if (ascii) {
+                varint(n);
+                ensure(n);
+                for (int i = 0; i < n; i++) buf[len++] = (byte) s.charAt(i);
+            } else {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                varint(b.length);
+                bytes(b, 0, b.length);
+            }
+        }
+
+        void putInt(int field, Integer v) {
+            if (v == null) return;
+            varint(field << 3 | VARINT);
+            varlong(zigzag(v));
+        }
+
+        void putLong(int field, Long v) {
+            if (v == null) return;
+            varint(field << 3 | VARINT);
+            varlong(zigzag(v));
+        }
+
+        void putBool(int field, Boolean v) {
+            if (v == null) return;
+            varint(field << 3 | VARINT);
+            varint(v ? 1 : 0);
+        }
+
+        void putDate(int field, LocalDate d) {
+            if (d == null) return;
+            varint(field << 3 | VARINT);
+            varlong(zigzag(d.toEpochDay()));
+        }
+
+        void putMessage(int field, Patient p) {
+            if (p == null) return;
+            int start = beginField(field);
+            writePatient(this, p);
+            end(start);
+        }
+
+        void putPatients(int field, List<Patient> ps) {
+            if (ps == null) return;
+            int list = beginField(field);
+            for (Patient p : ps) {
+                int item = begin();
+                if (p != null) writePatient(this, p);
+                end(item);
+            }
+            end(list);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+    }
+
+    /** Leitura sobre um intervalo de um array (sub() devolve o intervalo de um campo LEN). */
+    private static final class In {
+        final byte[] buf;
+        int pos;
+        final int limit;
+
+        In(byte[] buf, int pos, int limit) {
+            this.buf = buf;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        boolean more() {
+            return pos < limit;
+        }
+
+        private byte next() {
+            if (pos >= limit) throw new IllegalArgumentException("frame binário truncado");
+            return buf[pos++];
+        }
+
+        int varint() {
+            return (int) varlong();
+        }
+
+        long varlong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = next();
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw new IllegalArgumentException("varint inválido");
+        }
+
+        int sint() {
+            return (int) unzigzag(varlong());
+        }
+
+        long slong() {
+            return unzigzag(varlong());
+        }
+
+        boolean bool() {
+            return varlong() != 0;
+        }
+
+        LocalDate date() {
+            return LocalDate.ofEpochDay(slong());
+        }
+
+        private int length() {
+            int n = varint();
+            if (n < 0 || n > limit - pos) throw new IllegalArgumentException("frame binário truncado");
+            return n;
+        }
+
+        String string() {
+            int n = length();
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+
+        In sub() {
+            int n = length();
+            In in = new In(buf, pos, pos + n);
+            pos += n;
+            return in;
+        }
+
+        void skip(int type) {
+            switch (type) {
+                case VARINT -> varlong();
+                case LEN -> pos += length();
+                default -> throw new IllegalArgumentException("tipo de campo desconhecido: " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package common.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressão por frame (deflate) das ligações que a negociaram (Wire.*_DEFLATE).
+ * - Frame: cabeçalho varint (comprimento << 2 | com requestId << 1 | comprimido) + conteúdo
+ * - Com requestId o conteúdo começa pelo requestId (varint) fora da compressão: um frame em
+ *   cache recebe o requestId de cada pedido sem voltar a descomprimir nem a comprimir
+ * - Só comprime a partir de MIN_BYTES e só se ficar mais pequeno; o resto segue tal e qual
+ * - Deflater/Inflater reutilizados (pool limitado): criar um por frame custa memória nativa
+ * - Métricas globais do processo: razão de compressão e tempo por frame
+ */
+public final class FrameCompression {
+
+    /** Frames mais pequenos não compensam o custo (e quase não encolhem). */
+    public static final int MIN_BYTES = 512;
+
+    /** Maior requestId em varint: o conteúdo de um frame pode passar o limite do payload nisto. */
+    public static final int MAX_TAG_BYTES = 10;
+
+    static final int FLAG_PACKED = 1;
+    static final int FLAG_TAGGED = 2;
+
+    private static final int POOL_SIZE = 32;
+    private static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // métricas
+    private static final LongAdder compressed = new LongAdder();
+    private static final LongAdder stored = new LongAdder();     // enviados sem compressão
+    private static final LongAdder rawBytes = new LongAdder();   // antes, só dos comprimidos
+    private static final LongAdder packedBytes = new LongAdder();
+    private static final LongAdder deflateNanos = new LongAdder();
+    private static final LongAdder inflated = new LongAdder();
+    private static final LongAdder inflateNanos = new LongAdder();
+
+    private FrameCompression() {}
+
+    /** Frame completo (cabeçalho + conteúdo), comprimido se compensar. */
+    public static byte[] frame(byte[] payload) {
+        if (payload.length >= MIN_BYTES) {
+            long t0 = System.nanoTime();
+            byte[] packed = deflate(payload);
+            deflateNanos.add(System.nanoTime() - t0);
+            if (packed.length < payload.length) {
+                compressed.increment();
+                rawBytes.add(payload.length);
+                packedBytes.add(packed.length);
+                return withHeader(packed, packed.length, FLAG_PACKED);
+            }
+        }
+        stored.increment();
+        return withHeader(payload, payload.length, 0);
+    }
+
+    /**
+     * Cópia de um frame sem requestId (p.ex. em cache) com o requestId no cabeçalho: o corpo,
+     * comprimido ou não, é copiado tal e qual.
+     */
+    public static byte[] withRequestId(byte[] frame, long requestId) {
+        int h = 0, pos = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = frame[pos++];
+            h |= (b & 0x7F) << shift;
+            if (b >= 0) break;
+        }
+        if ((h & FLAG_TAGGED) != 0) throw new IllegalArgumentException("frame já tem requestId");
+        int len = h >>> 2;
+        byte[] tag = new byte[MAX_TAG_BYTES];
+        int tagLen = putVarLong(tag, requestId);
+        byte[] body = new byte[tagLen + len];
+        System.arraycopy(tag, 0, body, 0, tagLen);
+        System.arraycopy(frame, pos, body, tagLen, len);
+        return withHeader(body, body.length, (h & FLAG_PACKED) | FLAG_TAGGED);
+    }
+
+    private static int putVarLong(byte[] buf, long v) {
+        int n = 0;
+        while ((v & ~0x7FL) != 0) {
+            buf[n++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[n++] = (byte) v;
+        return n;
+    }
+
+    /** Descomprime 'len' bytes a partir de 'off'; IOException se passar de maxBytes ou estiver corrompido. */
+    public static byte[] inflate(byte[] buf, int off, int len, int maxBytes) throws IOException {
+        long t0 = System.nanoTime();
+        Inflater inf = inflaters.poll();
+        if (inf == null) inf = new Inflater();
+        try {
+            inf.setInput(buf, off, len);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, len * 4));
+            byte[] chunk = new byte[8192];
+            while (!inf.finished()) {
+                int n = inf.inflate(chunk);
+                if (n == 0 && (inf.needsInput() || inf.needsDictionary())) throw new IOException("frame comprimido truncado");
+                if (out.size() + n > maxBytes) throw new IOException("frame excede " + maxBytes + " bytes");
+                out.write(chunk, 0, n);
+            }
+            inflated.increment();
+            inflateNanos.add(System.nanoTime() - t0);
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("frame comprimido inválido", e);
+        } finally {
+            inf.reset();
+            if (!inflaters.offer(inf)) inf.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] payload) {
+        Deflater def = deflaters.poll();
+        if (def == null) def = new Deflater(Deflater.BEST_SPEED, false);
+        try {
+            def.setInput(payload);
+            def.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 4 + 64);
+            byte[] chunk = new byte[8192];
+            while (!def.finished()) {
+                int n = def.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            def.reset();
+            if (!deflaters.offer(def)) def.end();
+        }
+    }
+
+    private static byte[] withHeader(byte[] body, int len, int flags) {
+        int h = (len << 2) | flags;
+        byte[] head = new byte[5];
+        int n = 0;
+        while ((h & ~0x7F) != 0) {
+            head[n++] = (byte) ((h & 0x7F) | 0x80);
+            h >>>= 7;
+        }
+        head[n++] = (byte) h;
+        byte[] frame = new byte[n + len];
+        System.arraycopy(head, 0, frame, 0, n);
+        System.arraycopy(body, 0, frame, n, len);
+        return frame;
+    }
+
+    /** Ex.: deflate{frames=120, stored=3400, ratio=0.14, deflateUs=310.5, inflated=2, inflateUs=85.0} */
+    public static String stats() {
+        long c = compressed.sum();
+        long raw = rawBytes.sum();
+        long i = inflated.sum();
+        return "deflate{frames=" + c + ", stored=" + stored.sum()
+                + ", ratio=" + (raw == 0 ? "-" : String.format("%.2f", (double) packedBytes.sum() / raw))
+                + ", deflateUs=" + (c == 0 ? "-" : String.format("%.1f", deflateNanos.sum() / 1e3 / c))
+                + ", inflated=" + i
+                + ", inflateUs=" + (i == 0 ? "-" : String.format("%.1f", inflateNanos.sum() / 1e3 / i)) + "}";
+    }
+}
@@ -0,0 +1,28 @@
+package common.protocol;
+
+import java.io.IOException;
+
+/**
+ * Destino de frames de uma ligação (LineJson ou binário, conforme wire()).
+ * Permite respostas com vários frames (streaming) sem juntar tudo em memória.
+ */
+public interface FrameSink {
+
+    /** Formato da ligação: writeRaw só aceita frames codificados neste formato. */
+    Wire wire();
+
+    /** Escreve um frame; pode ficar em buffer até flush(). */
+    void write(Object frame) throws IOException;
+
+    /** Escreve um frame já codificado por wire().encode(...), sem voltar a serializar. */
+    void writeRaw(byte[] frame) throws IOException;
+
+    /** Garante que os frames escritos seguem para o socket. */
+    void flush() throws IOException;
+
+    /** Atalho para respostas de um só frame. */
+    default void send(Object frame) throws IOException {
+        write(frame);
+        flush();
+    }
+}
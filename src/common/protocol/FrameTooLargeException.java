@@ -0,0 +1,16 @@
+package common.protocol;
+
+/**
+ * Frame maior do que Wire.MAX_FRAME_BYTES: o outro lado recusá-lo-ia na leitura.
+ * Lançada na codificação, antes de qualquer byte do frame sair para a ligação.
+ */
+public class FrameTooLargeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public final long bytes;
+
+    public FrameTooLargeException(long bytes) {
+        super("Frame com " + bytes + " bytes excede o limite de " + Wire.MAX_FRAME_BYTES + " bytes.");
+        this.bytes = bytes;
+    }
+}
@@ -0,0 +1,395 @@
+package common.protocol;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import common.dto.BulkItemResult;
+import common.dto.ChangeEvent;
+import common.dto.Request;
+import common.dto.Response;
+import common.dto.StreamFrame;
+import common.model.Patient;
+import common.model.PatientSummary;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TypeAdapters do LineJson escritos à mão: lêem e escrevem os campos directamente no
+ * JsonReader/JsonWriter, sem reflexão nem árvore JsonElement intermédia.
+ * - Nomes e ordem dos campos iguais aos da serialização por reflexão (o JSON não muda)
+ * - Campos nulos não são escritos; campos desconhecidos são ignorados na leitura
+ * - Ao acrescentar um campo público a estas classes, acrescentá-lo também aqui
+ */
+final class JsonAdapters {
+
+    private JsonAdapters() {}
+
+    /** Leitura de um elemento (para listas). */
+    @FunctionalInterface
+    private interface ElementReader<T> {
+        T read(JsonReader in) throws IOException;
+    }
+
+    /** Escrita de um elemento não nulo (para listas). */
+    @FunctionalInterface
+    private interface ElementWriter<T> {
+        void write(JsonWriter out, T value) throws IOException;
+    }
+
+    static final TypeAdapter<LocalDate> LOCAL_DATE = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, LocalDate d) throws IOException {
+            if (d == null) out.nullValue();
+            else out.value(d.toString());
+        }
+
+        @Override
+        public LocalDate read(JsonReader in) throws IOException {
+            return readDate(in);
+        }
+    };
+
+    static final TypeAdapter<Patient> PATIENT = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, Patient p) throws IOException {
+            if (p == null) out.nullValue();
+            else writePatient(out, p);
+        }
+
+        @Override
+        public Patient read(JsonReader in) throws IOException {
+            return readPatient(in);
+        }
+    };
+
+    static final TypeAdapter<Request> REQUEST = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, Request r) throws IOException {
+            if (r == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            string(out, "action", r.action);
+            if (r.patient != null) writePatient(out.name("patient"), r.patient);
+            list(out, "patients", r.patients, JsonAdapters::writePatient);
+            string(out, "username", r.username);
+            string(out, "password", r.password);
+            string(out, "token", r.token);
+            number(out, "limit", r.limit);
+            number(out, "afterId", r.afterId);
+            string(out, "afterNome", r.afterNome);
+            number(out, "ifVersion", r.ifVersion);
+            number(out, "sinceVersion", r.sinceVersion);
+            number(out, "requestId", r.requestId);
+            out.endObject();
+        }
+
+        @Override
+        public Request read(JsonReader in) throws IOException {
+            if (nullValue(in)) return null;
+            Request r = new Request();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (nullValue(in)) continue;
+                switch (name) {
+                    case "action" -> r.action = in.nextString();
+                    case "patient" -> r.patient = readPatient(in);
+                    case "patients" -> r.patients = readList(in, JsonAdapters::readPatient);
+                    case "username" -> r.username = in.nextString();
+                    case "password" -> r.password = in.nextString();
+                    case "token" -> r.token = in.nextString();
+                    case "limit" -> r.limit = in.nextInt();
+                    case "afterId" -> r.afterId = in.nextInt();
+                    case "afterNome" -> r.afterNome = in.nextString();
+                    case "ifVersion" -> r.ifVersion = in.nextLong();
+                    case "sinceVersion" -> r.sinceVersion = in.nextLong();
+                    case "requestId" -> r.requestId = in.nextLong();
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return r;
+        }
+    };
+
+    static final TypeAdapter<Response> RESPONSE = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, Response r) throws IOException {
+            if (r == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            string(out, "status", r.status);
+            string(out, "message", r.message);
+            list(out, "data", r.data, JsonAdapters::writePatient);
+            list(out, "summaries", r.summaries, JsonAdapters::writeSummary);
+            if (r.patient != null) writePatient(out.name("patient"), r.patient);
+            string(out, "token", r.token);
+            list(out, "results", r.results, JsonAdapters::writeBulkResult);
+            number(out, "requestId", r.requestId);
+            string(out, "outcome", r.outcome);
+            number(out, "id", r.id);
+            number(out, "version", r.version);
+            bool(out, "notModified", r.notModified);
+            list(out, "deletedIds", r.deletedIds, (o, id) -> o.value(id.longValue()));
+            bool(out, "resync", r.resync);
+            if (r.event != null) {
+                out.name("event").beginObject();
+                string(out, "type", r.event.type);
+                number(out, "id", r.event.id);
+                out.name("version").value(r.event.version);
+                out.endObject();
+            }
+            number(out, "nextAfterId", r.nextAfterId);
+            string(out, "nextAfterNome", r.nextAfterNome);
+            out.endObject();
+        }
+
+        @Override
+        public Response read(JsonReader in) throws IOException {
+            if (nullValue(in)) return null;
+            Response r = new Response();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (nullValue(in)) continue;
+                switch (name) {
+                    case "status" -> r.status = in.nextString();
+                    case "message" -> r.message = in.nextString();
+                    case "data" -> r.data = readList(in, JsonAdapters::readPatient);
+                    case "summaries" -> r.summaries = readList(in, JsonAdapters::readSummary);
+                    case "patient" -> r.patient = readPatient(in);
+                    case "token" -> r.token = in.nextString();
+                    case "results" -> r.results = readList(in, JsonAdapters::readBulkResult);
+                    case "requestId" -> r.requestId = in.nextLong();
+                    case "version" -> r.version = in.nextLong();
+                    case "notModified" -> r.notModified = in.nextBoolean();
+                    case "deletedIds" -> r.deletedIds = readList(in, JsonReader::nextInt);
+                    case "resync" -> r.resync = in.nextBoolean();
+                    case "event" -> r.event = readChangeEvent(in);
+                    case "nextAfterId" -> r.nextAfterId = in.nextInt();
+                    case "nextAfterNome" -> r.nextAfterNome = in.nextString();
+                    case "outcome" -> r.outcome = in.nextString();
+                    case "id" -> r.id = in.nextInt();
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return r;
+        }
+    };
+
+    static final TypeAdapter<StreamFrame> STREAM_FRAME = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, StreamFrame f) throws IOException {
+            if (f == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (f.patient != null) writePatient(out.name("patient"), f.patient);
+            bool(out, "end", f.end);
+            number(out, "count", f.count);
+            string(out, "error", f.error);
+            number(out, "requestId", f.requestId);
+            out.endObject();
+        }
+
+        @Override
+        public StreamFrame read(JsonReader in) throws IOException {
+            if (nullValue(in)) return null;
+            StreamFrame f = new StreamFrame();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (nullValue(in)) continue;
+                switch (name) {
+                    case "patient" -> f.patient = readPatient(in);
+                    case "end" -> f.end = in.nextBoolean();
+                    case "count" -> f.count = in.nextInt();
+                    case "error" -> f.error = in.nextString();
+                    case "requestId" -> f.requestId = in.nextLong();
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return f;
+        }
+    };
+
+    // ===== tipos transportados =====
+
+    private static void writePatient(JsonWriter out, Patient p) throws IOException {
+        out.beginObject();
+        number(out, "id", p.id);
+        string(out, "nome", p.nome);
+        out.name("idade").value(p.idade);
+        string(out, "bi", p.bi);
+        string(out, "telefone", p.telefone);
+        string(out, "endereco", p.endereco);
+        string(out, "email", p.email);
+        string(out, "genero", p.genero);
+        if (p.dataNascimento != null) out.name("dataNascimento").value(p.dataNascimento.toString());
+        string(out, "historicoMedico", p.historicoMedico);
+        string(out, "planoSaude", p.planoSaude);
+        out.endObject();
+    }
+
+    private static Patient readPatient(JsonReader in) throws IOException {
+        if (nullValue(in)) return null;
+        Patient p = new Patient();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (nullValue(in)) continue;
+            switch (name) {
+                case "id" -> p.id = in.nextInt();
+                case "nome" -> p.nome = in.nextString();
+                case "idade" -> p.idade = in.nextInt();
+                case "bi" -> p.bi = in.nextString();
+                case "telefone" -> p.telefone = in.nextString();
+                case "endereco" -> p.endereco = in.nextString();
+                case "email" -> p.email = in.nextString();
+                case "genero" -> p.genero = in.nextString();
+                case "dataNascimento" -> p.dataNascimento = readDate(in);
+                case "historicoMedico" -> p.historicoMedico = in.nextString();
+                case "planoSaude" -> p.planoSaude = in.nextString();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return p;
+    }
+
+    private static void writeSummary(JsonWriter out, PatientSummary s) throws IOException {
+        out.beginObject();
+        number(out, "id", s.id);
+        string(out, "nome", s.nome);
+        out.name("idade").value(s.idade);
+        string(out, "bi", s.bi);
+        string(out, "telefone", s.telefone);
+        string(out, "email", s.email);
+        string(out, "planoSaude", s.planoSaude);
+        if (s.dataNascimento != null) out.name("dataNascimento").value(s.dataNascimento.toString());
+        out.endObject();
+    }
+
+    private static PatientSummary readSummary(JsonReader in) throws IOException {
+        if (nullValue(in)) return null;
+        PatientSummary s = new PatientSummary();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (nullValue(in)) continue;
+            switch (name) {
+                case "id" -> s.id = in.nextInt();
+                case "nome" -> s.nome = in.nextString();
+                case "idade" -> s.idade = in.nextInt();
+                case "bi" -> s.bi = in.nextString();
+                case "telefone" -> s.telefone = in.nextString();
+                case "email" -> s.email = in.nextString();
+                case "planoSaude" -> s.planoSaude = in.nextString();
+                case "dataNascimento" -> s.dataNascimento = readDate(in);
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return s;
+    }
+
+    private static void writeBulkResult(JsonWriter out, BulkItemResult b) throws IOException {
+        out.beginObject();
+        out.name("index").value(b.index);
+        string(out, "status", b.status);
+        number(out, "id", b.id);
+        string(out, "message", b.message);
+        out.endObject();
+    }
+
+    private static BulkItemResult readBulkResult(JsonReader in) throws IOException {
+        if (nullValue(in)) return null;
+        BulkItemResult b = new BulkItemResult();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (nullValue(in)) continue;
+            switch (name) {
+                case "index" -> b.index = in.nextInt();
+                case "status" -> b.status = in.nextString();
+                case "id" -> b.id = in.nextInt();
+                case "message" -> b.message = in.nextString();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return b;
+    }
+
+    private static ChangeEvent readChangeEvent(JsonReader in) throws IOException {
+        ChangeEvent e = new ChangeEvent();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (nullValue(in)) continue;
+            switch (name) {
+                case "type" -> e.type = in.nextString();
+                case "id" -> e.id = in.nextInt();
+                case "version" -> e.version = in.nextLong();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return e;
+    }
+
+    // ===== util =====
+
+    private static LocalDate readDate(JsonReader in) throws IOException {
+        if (nullValue(in)) return null;
+        return LocalDate.parse(in.nextString());
+    }
+
+    /** Consome um null; true se o valor seguinte era null. */
+    private static boolean nullValue(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.NULL) return false;
+        in.nextNull();
+        return true;
+    }
+
+    private static void string(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) out.name(name).value(value);
+    }
+
+    private static void number(JsonWriter out, String name, Number value) throws IOException {
+        if (value != null) out.name(name).value(value.longValue()); // só Integer/Long
+    }
+
+    private static void bool(JsonWriter out, String name, Boolean value) throws IOException {
+        if (value != null) out.name(name).value(value);
+    }
+
+    private static <T> void list(JsonWriter out, String name, List<T> items, ElementWriter<T> element) throws IOException {
+        if (items == null) return;
+        out.name(name).beginArray();
+        for (T item : items) {
+            if (item == null) out.nullValue();
+            else element.write(out, item);
+        }
+        out.endArray();
+    }
+
+    private static <T> List<T> readList(JsonReader in, ElementReader<T> element) throws IOException {
+        List<T> items = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) items.add(element.read(in));
+        in.endArray();
+        return items;
+    }
+}
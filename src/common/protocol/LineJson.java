@@ -4,21 +4,47 @@ import java.io.*;
 import java.time.LocalDate;
 
 import com.google.gson.*;
+import common.dto.Request;
+import common.dto.Response;
+import common.dto.StreamFrame;
+import common.model.Patient;
 
 public class LineJson {
+  // adapters escritos à mão (JsonAdapters): sem reflexão nem árvore JsonElement
   private static final Gson gson = new GsonBuilder()
-      .registerTypeAdapter(LocalDate.class, (JsonSerializer<LocalDate>) (src, t, ctx) ->
-          src == null ? JsonNull.INSTANCE : new JsonPrimitive(src.toString()))
-      .registerTypeAdapter(LocalDate.class, (JsonDeserializer<LocalDate>) (json, t, ctx) ->
-          (json == null || json.isJsonNull()) ? null : LocalDate.parse(json.getAsString()))
+      .registerTypeAdapter(LocalDate.class, JsonAdapters.LOCAL_DATE)
+      .registerTypeAdapter(Patient.class, JsonAdapters.PATIENT)
+      .registerTypeAdapter(Request.class, JsonAdapters.REQUEST)
+      .registerTypeAdapter(Response.class, JsonAdapters.RESPONSE)
+      .registerTypeAdapter(StreamFrame.class, JsonAdapters.STREAM_FRAME)
       .create();
 
   public static void send(Object obj, Writer w) throws IOException {
-    w.write(gson.toJson(obj));
-    w.write("\n");
+    write(obj, w);
     w.flush();
   }
 
+  /** Escreve uma linha (objecto + '\n') directamente no Writer, sem String intermédia e sem flush. */
+  public static void write(Object obj, Writer w) throws IOException {
+    try {
+      gson.toJson(obj, w);
+    } catch (JsonIOException e) {
+      if (e.getCause() instanceof IOException io) throw io;
+      throw e;
+    }
+    w.write("\n");
+  }
+
+  /** Serializa para uma linha JSON (sem o '\n' final). Usado pelo front-end NIO. */
+  public static String encode(Object obj) {
+    return gson.toJson(obj);
+  }
+
+  /** Descodifica uma linha JSON já enquadrada (sem o '\n' final). */
+  public static <T> T decode(String line, Class<T> type) {
+    return gson.fromJson(line, type);
+  }
+
   public static <T> T recv(BufferedReader r, Class<T> type) throws IOException {
     String line = r.readLine();
     if (line == null) throw new EOFException("ligação fechada");
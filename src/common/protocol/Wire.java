@@ -0,0 +1,334 @@
+package common.protocol;
+
+import common.dto.Request;
+import common.dto.Response;
+import common.dto.StreamFrame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formato dos frames de uma ligação, escolhido pelo cliente ao ligar:
+ * - JSON: LineJson, uma linha UTF-8 por frame (clientes antigos, sem preâmbulo)
+ * - BINARY: BinaryWire
+ * - *_DEFLATE: o mesmo conteúdo em frames com comprimento e compressão por frame (FrameCompression)
+ * Com preâmbulo o cliente começa com (0xB0 | flags) + '\n' e o servidor responde com o byte
+ * do formato que aceitou. Um servidor antigo responde com uma linha JSON (ou fecha): o cliente
+ * tenta um formato mais simples.
+ */
+public enum Wire {
+    JSON(false, false),
+    BINARY(true, false),
+    JSON_DEFLATE(false, true),
+    BINARY_DEFLATE(true, true);
+
+    /**
+     * Maior frame aceite na leitura (igual em todos os formatos, depois de descomprimido).
+     * A escrita respeita o mesmo limite: acima dele lança FrameTooLargeException sem escrever nada.
+     */
+    public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    private static final int PREAMBLE = 0xB0;
+    private static final int FLAG_BINARY = 1;
+    private static final int FLAG_DEFLATE = 2;
+
+    private final boolean binary;
+    private final boolean deflate;
+
+    Wire(boolean binary, boolean deflate) {
+        this.binary = binary;
+        this.deflate = deflate;
+    }
+
+    public static Wire of(boolean binary, boolean deflate) {
+        for (Wire w : values()) if (w.binary == binary && w.deflate == deflate) return w;
+        throw new AssertionError();
+    }
+
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    /** Frames com comprimento à cabeça (tudo menos JSON em linhas). */
+    public boolean isLengthPrefixed() {
+        return this != JSON;
+    }
+
+    /** Byte do preâmbulo deste formato (BINARY = 0xB1, como nos primeiros clientes binários). */
+    public int preamble() {
+        return PREAMBLE | (binary ? FLAG_BINARY : 0) | (deflate ? FLAG_DEFLATE : 0);
+    }
+
+    /** Formato pedido por um 1.º byte de ligação; null se não for um preâmbulo (linha JSON). */
+    public static Wire fromPreamble(int b) {
+        if ((b & ~(FLAG_BINARY | FLAG_DEFLATE)) != PREAMBLE || b == PREAMBLE) return null;
+        return of((b & FLAG_BINARY) != 0, (b & FLAG_DEFLATE) != 0);
+    }
+
+    /** Escreve frames numa stream; write() pode ficar em buffer até flush(). */
+    public interface FrameWriter {
+        void write(Object frame) throws IOException;
+
+        /** Frame já codificado neste formato (p.ex. em cache). */
+        void writeRaw(byte[] frame) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    /** Lê frames de uma stream; EOFException quando a ligação fecha. */
+    public interface FrameReader {
+        <T> T read(Class<T> type) throws IOException;
+    }
+
+    /**
+     * Frame completo (com '\n' em JSON, com o cabeçalho de comprimento nos restantes).
+     * FrameTooLargeException se o conteúdo passar de MAX_FRAME_BYTES (o leitor recusá-lo-ia).
+     */
+    public byte[] encode(Object frame) {
+        if (deflate) {
+            byte[] payload = payload(frame);
+            checkSize(payload.length);        // o leitor limita o tamanho depois de descomprimir
+            return FrameCompression.frame(payload);
+        }
+        byte[] bytes = binary ? BinaryWire.encode(frame)
+                : (LineJson.encode(frame) + "\n").getBytes(StandardCharsets.UTF_8);
+        checkSize(bytes.length - 1);          // sem o '\n' (JSON) ou com 1 byte de cabeçalho a menos: nunca acima do que o leitor aceita
+        return bytes;
+    }
+
+    private static void checkSize(long contentBytes) {
+        if (contentBytes > MAX_FRAME_BYTES) throw new FrameTooLargeException(contentBytes);
+    }
+
+    private byte[] payload(Object frame) {
+        return binary ? BinaryWire.encodePayload(frame) : LineJson.encode(frame).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maior conteúdo de um frame com comprimento: com compressão o requestId do cabeçalho
+     * (FrameCompression.withRequestId) fica fora do limite do payload.
+     */
+    public int maxContentBytes() {
+        return deflate ? MAX_FRAME_BYTES + FrameCompression.MAX_TAG_BYTES : MAX_FRAME_BYTES;
+    }
+
+    /**
+     * Descodifica o conteúdo de um frame já enquadrado: a linha sem '\n' (JSON), o payload
+     * (BINARY) ou, com compressão, um byte com as flags do cabeçalho (comprimido, com requestId)
+     * seguido do requestId em varint, se o tiver, e do payload.
+     */
+    public <T> T decode(byte[] content, Class<T> type) throws IOException {
+        if (!deflate) return decodePayload(content, 0, content.length, type);
+        if (content.length == 0) throw new IOException("frame vazio");
+        int flags = content[0];
+        int pos = 1;
+        long requestId = 0;
+        if ((flags & FrameCompression.FLAG_TAGGED) != 0) {
+            for (int shift = 0; ; shift += 7) {
+                if (pos >= content.length || shift > 63) throw new IOException("requestId de frame inválido");
+                byte b = content[pos++];
+                requestId |= (long) (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+        }
+        T decoded;
+        if ((flags & FrameCompression.FLAG_PACKED) == 0) {
+            checkSize(content.length - pos);
+            decoded = decodePayload(content, pos, content.length - pos, type);
+        } else {
+            byte[] payload = FrameCompression.inflate(content, pos, content.length - pos, MAX_FRAME_BYTES);
+            decoded = decodePayload(payload, 0, payload.length, type);
+        }
+        if ((flags & FrameCompression.FLAG_TAGGED) != 0) setRequestId(decoded, requestId);
+        return decoded;
+    }
+
+    private static void setRequestId(Object frame, long requestId) {
+        if (frame instanceof Response r) r.requestId = requestId;
+        else if (frame instanceof StreamFrame f) f.requestId = requestId;
+        else if (frame instanceof Request r) r.requestId = requestId;
+    }
+
+    private <T> T decodePayload(byte[] buf, int off, int len, Class<T> type) {
+        if (binary) return BinaryWire.decode(buf, off, len, type);
+        return LineJson.decode(new String(buf, off, len, StandardCharsets.UTF_8), type);
+    }
+
+    /**
+     * Cópia de um frame de Response já codificado com o requestId acrescentado. Com compressão
+     * vai no cabeçalho do frame: o corpo em cache é reutilizado sem descomprimir.
+     */
+    public byte[] withRequestId(byte[] frame, long requestId) {
+        if (deflate) return FrameCompression.withRequestId(frame, requestId);
+        return binary ? BinaryWire.withRequestId(frame, requestId) : jsonWithRequestId(frame, requestId);
+    }
+
+    /** {"status":...}  ->  {"requestId":N,"status":...}  (com ou sem '\n' final) */
+    private static byte[] jsonWithRequestId(byte[] json, long requestId) {
+        byte[] head = ("{\"requestId\":" + requestId + ",").getBytes(StandardCharsets.UTF_8);
+        byte[] tagged = new byte[head.length + json.length - 1];
+        System.arraycopy(head, 0, tagged, 0, head.length);
+        System.arraycopy(json, 1, tagged, head.length, json.length - 1);
+        return tagged;
+    }
+
+    public FrameWriter writer(OutputStream os) {
+        if (this == JSON) return new LineWriter(os);
+        OutputStream out = new BufferedOutputStream(os, 8192);
+        return new FrameWriter() {
+            @Override public void write(Object frame) throws IOException { out.write(encode(frame)); }
+            @Override public void writeRaw(byte[] frame) throws IOException { out.write(frame); }
+            @Override public void flush() throws IOException { out.flush(); }
+        };
+    }
+
+    /**
+     * Escritor LineJson: cada linha é serializada primeiro para um buffer limitado a MAX_FRAME_BYTES
+     * (bytes UTF-8, sem String intermédia) e só depois copiada para a stream. Uma linha grande
+     * demais lança FrameTooLargeException sem deixar meia linha na ligação.
+     */
+    private static final class LineWriter implements FrameWriter {
+        /** Buffer que cresceu acima disto (uma resposta grande) não fica preso à ligação. */
+        private static final int KEEP_BYTES = 64 * 1024;
+
+        private final OutputStream os;
+        private LimitedBuffer line = new LimitedBuffer();
+        private Writer w = new OutputStreamWriter(line, StandardCharsets.UTF_8);
+
+        LineWriter(OutputStream os) {
+            this.os = os;
+        }
+
+        @Override
+        public void write(Object frame) throws IOException {
+            try {
+                LineJson.write(frame, w);
+                w.flush();
+            } catch (FrameTooLargeException e) {
+                // o encoder do Writer pode ter ficado com caracteres pendentes: recomeça do zero
+                line = new LimitedBuffer();
+                w = new OutputStreamWriter(line, StandardCharsets.UTF_8);
+                throw e;
+            }
+            line.writeTo(os);
+            if (line.capacity() > KEEP_BYTES) {
+                line = new LimitedBuffer();
+                w = new OutputStreamWriter(line, StandardCharsets.UTF_8);
+            } else {
+                line.reset();
+            }
+        }
+
+        @Override
+        public void writeRaw(byte[] frame) throws IOException {
+            os.write(frame);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            os.flush();
+        }
+    }
+
+    /** ByteArrayOutputStream que recusa passar de MAX_FRAME_BYTES + '\n'. */
+    private static final class LimitedBuffer extends ByteArrayOutputStream {
+        LimitedBuffer() {
+            super(1024);
+        }
+
+        @Override
+        public void write(int b) {
+            check(1);
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            check(len);
+            super.write(b, off, len);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        private void check(int more) {
+            if ((long) count + more > MAX_FRAME_BYTES + 1L) throw new FrameTooLargeException((long) count + more);
+        }
+    }
+
+    public FrameReader reader(InputStream is) {
+        if (this == JSON) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            return new FrameReader() {
+                @Override public <T> T read(Class<T> type) throws IOException { return LineJson.recv(r, type); }
+            };
+        }
+        InputStream in = is instanceof BufferedInputStream ? is : new BufferedInputStream(is);
+        return new FrameReader() {
+            @Override public <T> T read(Class<T> type) throws IOException { return decode(readContent(in), type); }
+        };
+    }
+
+    /** Lê um frame com comprimento e devolve o conteúdo no formato que decode() espera. */
+    private byte[] readContent(InputStream in) throws IOException {
+        int h = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException(shift == 0 ? "ligação fechada" : "frame truncado");
+            if (shift > 28) throw new IOException("comprimento de frame inválido");
+            h |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        int len = deflate ? h >>> 2 : h;
+        if (len < 0 || len > maxContentBytes()) throw new IOException("frame excede " + MAX_FRAME_BYTES + " bytes");
+        int off = deflate ? 1 : 0;
+        byte[] content = new byte[off + len];
+        if (deflate) content[0] = (byte) (h & 3);
+        if (in.readNBytes(content, off, len) < len) throw new EOFException("frame truncado");
+        return content;
+    }
+
+    /**
+     * Lado do servidor (bloqueante): lê o 1.º byte para escolher o formato.
+     * Com preâmbulo consome-o e responde com o byte do formato; em JSON o byte fica por ler.
+     */
+    public static Wire accept(BufferedInputStream in, OutputStream out) throws IOException {
+        in.mark(2);
+        Wire wire = fromPreamble(in.read());
+        if (wire == null) {
+            in.reset();
+            return JSON;
+        }
+        in.mark(1);
+        if (in.read() != '\n') in.reset();
+        out.write(wire.preamble());
+        out.flush();
+        return wire;
+    }
+
+    /**
+     * Lado do cliente: pede este formato. true se o servidor o aceitou; false se é um
+     * servidor que não o conhece (a ligação deve ser reaberta noutro formato).
+     */
+    public boolean request(InputStream in, OutputStream out) throws IOException {
+        if (this == JSON) return true;
+        out.write(new byte[] {(byte) preamble(), '\n'});
+        out.flush();
+        try {
+            return in.read() == preamble();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
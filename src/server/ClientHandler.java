@@ -1,38 +1,48 @@
 package server;
 
+import common.dto.ChangeEvent;
 import common.dto.Request;
 import common.dto.Response;
-import common.protocol.LineJson;
-import server.auth.AuthService;
-import server.handler.PatientHandler;
-import server.util.JsonLogger;
+import common.protocol.FrameSink;
+import common.protocol.Wire;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.EOFException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Handler por ligação. Lê vários requests (LineJson) da mesma ligação.
- * - Timeout de leitura
- * - Autenticação com token + expiração
- * - Contagem de falhas & lockouts
- * - Logs estruturados (JSON) para ficheiro UTF-8 (rotação diária)
+ * Handler por ligação (modo bloqueante). Lê vários requests da mesma ligação
+ * (LineJson ou binário, conforme o preâmbulo do cliente).
+ * - Timeout de leitura (excepto ligações com SUBSCRIBE)
+ * - Notificações (push) escritas por outra thread, só entre respostas: com uma resposta em curso
+ *   o push é recusado (não prende a thread de push) e retomado quando o lock de escrita se solta
+ * - Requests com requestId (pipelining) correm em paralelo no executor 'pipeline';
+ *   os restantes são processados nesta thread, pela ordem de chegada
+ * - Autenticação, lockouts e logs delegados no RequestDispatcher
  */
 public class ClientHandler implements Runnable {
 
-    private static final int READ_TIMEOUT_MS = 7000;
-
     private final Socket socket;
-    private final PatientHandler handler;
+    private final RequestDispatcher dispatcher;
+    private final int readTimeoutMs;
+    private final ExecutorService pipeline;
+
+    /** Requests com requestId em execução em simultâneo na mesma ligação. */
+    private static final int MAX_IN_FLIGHT = 16;
 
-    public ClientHandler(Socket socket, PatientHandler handler) {
+    public ClientHandler(Socket socket, RequestDispatcher dispatcher, int readTimeoutMs, ExecutorService pipeline) {
         this.socket = socket;
-        this.handler = handler;
+        this.dispatcher = dispatcher;
+        this.readTimeoutMs = readTimeoutMs;
+        this.pipeline = pipeline;
     }
 
     @Override
@@ -42,95 +52,138 @@ public class ClientHandler implements Runnable {
 
         try (
             socket;
-            BufferedReader in = new BufferedReader(
-                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)
+            BufferedInputStream is = new BufferedInputStream(socket.getInputStream());
+            OutputStream os = socket.getOutputStream()
         ) {
-            socket.setSoTimeout(READ_TIMEOUT_MS);
-
-            while (true) {
-                Request req;
+            socket.setSoTimeout(readTimeoutMs);
+            // formato escolhido pelo 1.º byte do cliente (JSON ou preâmbulo binário)
+            final Wire wire = Wire.accept(is, os);
+            final Wire.FrameReader in = wire.reader(is);
+            final Wire.FrameWriter out = wire.writer(os);
+            // um request sem requestId detém o lock até ao fim da resposta (o push é recusado);
+            // com requestId o lock é por frame e as respostas podem intercalar-se
+            final WriteGate writeLock = new WriteGate();
+            ConnectionContext conn = new ConnectionContext(ip, events -> {
+                if (!writeLock.tryLockForPush()) return false;
                 try {
-                    req = LineJson.recv(in, Request.class);
-                } catch (EOFException eof) {
-                    log("conn_close", ip, "-", "-", "Cliente fechou a ligação");
-                    break;
-                } catch (SocketTimeoutException to) {
-                    log("conn_timeout", ip, "-", "-", "Timeout de leitura; a fechar ligação");
-                    break;
-                } catch (Exception ex) {
-                    log("conn_error", ip, "-", "-", "Erro a ler request: " + ex.getMessage());
-                    break;
+                    for (ChangeEvent e : events) out.write(Response.event(e));
+                    out.flush();
+                } finally {
+                    writeLock.unlock();
                 }
-
-                String action = (req.action == null ? "-" : req.action);
-                String userFromToken = safeUserFromToken(req.token);
-
-                // LOGIN não requer token
-                if ("LOGIN".equalsIgnoreCase(action)) {
-                    if (AuthService.isIpLocked(ip)) {
-                        long ms = AuthService.ipLockedRemainingMs(ip);
-                        String msg = "IP bloqueado. Aguarde " + (ms / 1000) + " segundos.";
-                        log("login_blocked_ip", ip, "-", "LOGIN", msg);
-                        LineJson.send(Response.error(msg), out);
-                        continue;
-                    }
-                    if (req.username != null && AuthService.isUserLocked(req.username)) {
-                        long ms = AuthService.userLockedRemainingMs(req.username);
-                        String msg = "Utilizador bloqueado. Aguarde " + (ms / 1000) + " segundos.";
-                        log("login_blocked_user", ip, req.username, "LOGIN", msg);
-                        LineJson.send(Response.error(msg), out);
-                        continue;
+                return true;
+            });
+            writeLock.conn = conn;
+            FrameSink sink = new FrameSink() {
+                @Override public Wire wire() {
+                    return wire;
+                }
+                @Override public void write(Object frame) throws IOException {
+                    writeLock.lock();
+                    try { out.write(frame); } finally { writeLock.unlock(); }
+                }
+                @Override public void writeRaw(byte[] frame) throws IOException {
+                    writeLock.lock();
+                    try { out.writeRaw(frame); } finally { writeLock.unlock(); }
+                }
+                @Override public void flush() throws IOException {
+                    writeLock.lock();
+                    try { out.flush(); } finally { writeLock.unlock(); }
+                }
+            };
+            Semaphore slots = new Semaphore(MAX_IN_FLIGHT);
+
+            try {
+                while (true) {
+                    Request req;
+                    try {
+                        req = in.read(Request.class);
+                    } catch (EOFException eof) {
+                        log("conn_close", ip, "-", "-", "Cliente fechou a ligação");
+                        break;
+                    } catch (SocketTimeoutException to) {
+                        if (conn.isSubscribed()) continue;
+                        log("conn_timeout", ip, "-", "-", "Timeout de leitura; a fechar ligação");
+                        break;
+                    } catch (Exception ex) {
+                        log("conn_error", ip, "-", "-", "Erro a ler request: " + ex.getMessage());
+                        break;
                     }
 
-                    String token = AuthService.login(req.username, req.password, ip);
-                    if (token != null) {
-                        var r = Response.okMsg("Login bem sucedido.");
-                        r.token = token;
-                        log("login_success", ip, req.username, "LOGIN", "OK");
-                        LineJson.send(r, out);
-                    } else {
-                        log("login_failure", ip, req.username, "LOGIN", "Credenciais inválidas ou bloqueado");
-                        LineJson.send(Response.error("Credenciais inválidas ou bloqueado temporariamente."), out);
+                    if (req != null && req.requestId != null && pipeline != null) {
+                        slots.acquire(); // limite atingido: deixa de ler até algum terminar
+                        if (submit(req, conn, sink, slots)) continue;
                     }
-                    continue;
-                }
-
-                // PING pode passar sem token (opcional)
-                if (!"ping".equalsIgnoreCase(action)) {
-                    if (!AuthService.isValid(req.token)) {
-                        log("auth_denied", ip, userFromToken, action, "Token inválido/expirado");
-                        LineJson.send(Response.error("Não autorizado ou sessão expirada. Faça login."), out);
-                        continue;
+                    writeLock.lock();
+                    try {
+                        dispatcher.dispatch(req, conn, sink);
+                    } finally {
+                        writeLock.unlock();
                     }
                 }
-
-                // Negócio
-                try {
-                    Response resp = handler.handle(req);
-                    log("request_ok", ip, userFromToken, action, "OK");
-                    LineJson.send(resp, out);
-                } catch (Exception ex) {
-                    log("request_error", ip, userFromToken, action, "Erro: " + ex.getMessage());
-                    LineJson.send(Response.error("Erro interno."), out);
-                }
+                // deixa terminar as respostas em curso antes de fechar o socket
+                slots.tryAcquire(MAX_IN_FLIGHT, readTimeoutMs, TimeUnit.MILLISECONDS);
+            } finally {
+                conn.close();
             }
         } catch (Exception e) {
             log("conn_error", ip, "-", "-", "Excepção no handler: " + e.getMessage());
         }
     }
 
-    // ===== util =====
-
-    private static String safeUserFromToken(String token) {
+    /** Processa um request com requestId no executor; false se foi rejeitado (processar nesta thread). */
+    private boolean submit(Request req, ConnectionContext conn, FrameSink sink, Semaphore slots) {
         try {
-            String u = AuthService.userFromToken(token);
-            return (u == null ? "-" : u);
-        } catch (Exception ignore) {
-            return "-";
+            pipeline.execute(() -> {
+                try {
+                    dispatcher.dispatch(req, conn, sink);
+                } catch (IOException e) {
+                    log("conn_error", conn.ip, "-", "-", "Erro a escrever resposta: " + e.getMessage());
+                    try { socket.close(); } catch (IOException ignore) {}
+                } finally {
+                    slots.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException rex) {
+            slots.release();
+            return false;
+        }
+    }
+
+    /**
+     * Lock de escrita da ligação. O push nunca espera por ele: recusa, e quem o soltar por
+     * completo avisa a subscrição (ConnectionContext.writable) para tentar de novo.
+     */
+    private static final class WriteGate {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile boolean pushRefused;
+        volatile ConnectionContext conn;
+
+        void lock() {
+            lock.lock();
+        }
+
+        /** Marca a recusa antes de tentar: um unlock entre as duas não perde o aviso. */
+        boolean tryLockForPush() {
+            pushRefused = true;
+            if (!lock.tryLock()) return false;
+            pushRefused = false;
+            return true;
+        }
+
+        void unlock() {
+            lock.unlock();
+            if (pushRefused && !lock.isHeldByCurrentThread()) {
+                pushRefused = false;
+                ConnectionContext c = conn;
+                if (c != null) c.writable();
+            }
         }
     }
 
+    // ===== util =====
+
     /** Encaminha para o logger UTF-8 com rotação diária. */
     private static void log(String event, String ip, String user, String action, String message) {
         server.util.JsonLogger.log(event, ip, user, action, message);
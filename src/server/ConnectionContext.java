@@ -0,0 +1,81 @@
+package server;
+
+import server.auth.AuthService;
+import server.service.ChangeBroadcaster;
+
+/**
+ * Estado de uma ligação partilhado entre o front-end (bloqueante ou NIO) e o RequestDispatcher.
+ * - IP do cliente (logs, lockouts)
+ * - Canal de push da ligação e a subscrição activa (SUBSCRIBE)
+ * - Sessão autenticada: depois do LOGIN (ou do 1.º token válido) o mesmo token nesta ligação
+ *   não volta a ser verificado; basta comparar com o token guardado e o prazo em cache
+ */
+public final class ConnectionContext {
+
+    public final String ip;
+    private final ChangeBroadcaster.Target pushTarget;
+    private ChangeBroadcaster.Subscription subscription; // protegido por 'this'
+    private volatile Binding binding;                     // imutável; pedidos em pipeline leem-no em paralelo
+
+    /** Token aceite nesta ligação, a sua sessão e a geração de revogações em que foi verificado. */
+    private record Binding(String token, AuthService.Principal principal, long revocations) {}
+
+    public ConnectionContext(String ip, ChangeBroadcaster.Target pushTarget) {
+        this.ip = ip;
+        this.pushTarget = pushTarget;
+    }
+
+    /**
+     * Sessão do token deste pedido. Igual ao token já associado à ligação, ainda no prazo e sem
+     * revogações entretanto: devolve a sessão em cache; caso contrário verifica e associa o novo.
+     */
+    AuthService.Principal authenticate(String token) {
+        if (token == null) return null; // p.ex. PING sem token: não mexe na sessão
+        Binding b = binding;
+        if (b != null && b.token.equals(token)
+                && b.principal.expiresAtMs() > System.currentTimeMillis()
+                && b.revocations == AuthService.revocations()) {
+            return b.principal;
+        }
+        long revocations = AuthService.revocations(); // antes de verificar: uma revogação a meio obriga a repetir
+        AuthService.Principal p = AuthService.authenticate(token);
+        binding = (p == null) ? null : new Binding(token, p, revocations);
+        return p;
+    }
+
+    /** LOGOUT: a ligação deixa de ter sessão. */
+    void unbind() {
+        binding = null;
+    }
+
+    /** Subscreve (idempotente: uma segunda chamada mantém a subscrição existente). */
+    synchronized void subscribe(ChangeBroadcaster broadcaster) {
+        if (subscription == null) subscription = broadcaster.subscribe(pushTarget);
+    }
+
+    synchronized boolean unsubscribe() {
+        if (subscription == null) return false;
+        subscription.close();
+        subscription = null;
+        return true;
+    }
+
+    /** O front-end volta a aceitar notificações depois de ter recusado um push (ligação congestionada). */
+    public void writable() {
+        ChangeBroadcaster.Subscription s;
+        synchronized (this) {
+            s = subscription;
+        }
+        if (s != null) s.writable();
+    }
+
+    /** Ligações subscritas ficam abertas mesmo sem requests (não contam para o timeout de leitura). */
+    public synchronized boolean isSubscribed() {
+        return subscription != null;
+    }
+
+    /** Chamado pelo front-end quando a ligação fecha. */
+    public void close() {
+        unsubscribe();
+    }
+}
@@ -0,0 +1,215 @@
+package server;
+
+import common.dto.Request;
+import common.dto.Response;
+import common.dto.StreamFrame;
+import common.protocol.FrameSink;
+import common.protocol.FrameTooLargeException;
+import common.protocol.Wire;
+import server.auth.AuthService;
+import server.handler.PatientHandler;
+import server.service.ChangeBroadcaster;
+
+import java.io.IOException;
+
+/**
+ * Lógica comum a todos os front-ends (thread por ligação ou NIO):
+ * - LOGIN com verificação de bloqueios por IP/utilizador
+ * - Validação de token para as restantes acções (PING passa sem token); token renovado
+ *   a meio do TTL segue no campo token da resposta; LOGOUT revoga o token
+ * - SUBSCRIBE/UNSUBSCRIBE (estado da ligação)
+ * - Eco do requestId em todos os frames da resposta (pipelining)
+ * - Delegação para o PatientHandler
+ * - Logs estruturados de cada pedido
+ */
+public class RequestDispatcher {
+
+    private final PatientHandler handler;
+    private final ChangeBroadcaster broadcaster;
+
+    public RequestDispatcher(PatientHandler handler, ChangeBroadcaster broadcaster) {
+        this.handler = handler;
+        this.broadcaster = broadcaster;
+    }
+
+    /**
+     * Processa um request já descodificado e escreve a(s) resposta(s) em 'out'.
+     * IOException só quando a escrita na ligação falha (a ligação deve ser fechada).
+     */
+    public void dispatch(Request req, ConnectionContext conn, FrameSink out) throws IOException {
+        String ip = conn.ip;
+        if (req == null) {
+            out.send(Response.error("Request inválido."));
+            return;
+        }
+        if (req.requestId != null) out = new RequestIdSink(out, req.requestId);
+        String action = (req.action == null ? "-" : req.action);
+        AuthService.Principal principal = conn.authenticate(req.token);
+        String userFromToken = (principal == null ? "-" : principal.user());
+
+        // LOGIN não requer token
+        if ("LOGIN".equalsIgnoreCase(action)) {
+            out.send(login(req, conn));
+            return;
+        }
+
+        // PING pode passar sem token (opcional)
+        if (!"ping".equalsIgnoreCase(action)) {
+            if (principal == null) {
+                log("auth_denied", ip, userFromToken, action, "Token inválido/expirado");
+                out.send(Response.error("Não autorizado ou sessão expirada. Faça login."));
+                return;
+            }
+            String renewed = AuthService.renewIfStale(principal);
+            if (renewed != null) out = new RenewedTokenSink(out, renewed);
+        }
+
+        if ("LOGOUT".equals(action)) {
+            AuthService.revoke(principal);
+            conn.unbind();
+            out.send(Response.okMsg("Sessão terminada."));
+            log("logout", ip, userFromToken, action, "OK");
+            return;
+        }
+
+        // Notificações de escrita nesta ligação
+        if ("SUBSCRIBE".equals(action)) {
+            conn.subscribe(broadcaster);
+            Response r = Response.okMsg("subscribed");
+            r.version = broadcaster.version();
+            out.send(r);
+            log("subscribe", ip, userFromToken, action, "OK");
+            return;
+        }
+        if ("UNSUBSCRIBE".equals(action)) {
+            out.send(Response.okMsg(conn.unsubscribe() ? "unsubscribed" : "not_subscribed"));
+            return;
+        }
+
+        // Negócio
+        try {
+            handler.handle(req, out);
+            log("request_ok", ip, userFromToken, action, "OK");
+        } catch (FrameTooLargeException big) {
+            // nada da resposta chegou a sair: o cliente recebe o erro no lugar dela
+            log("request_error", ip, userFromToken, action, big.getMessage());
+            out.send(Response.error("Resposta excede o limite de " + Wire.MAX_FRAME_BYTES
+                    + " bytes por frame: use LIST_PATIENTS com limit (paginação) ou STREAM_PATIENTS."));
+        } catch (IOException io) {
+            log("request_error", ip, userFromToken, action, "Erro a escrever resposta: " + io.getMessage());
+            throw io;
+        } catch (Exception ex) {
+            log("request_error", ip, userFromToken, action, "Erro: " + ex.getMessage());
+            out.send(Response.error("Erro interno."));
+        }
+    }
+
+    private Response login(Request req, ConnectionContext conn) {
+        String ip = conn.ip;
+        if (AuthService.isIpLocked(ip)) {
+            long ms = AuthService.ipLockedRemainingMs(ip);
+            String msg = "IP bloqueado. Aguarde " + (ms / 1000) + " segundos.";
+            log("login_blocked_ip", ip, "-", "LOGIN", msg);
+            return Response.error(msg);
+        }
+        if (req.username != null && AuthService.isUserLocked(req.username)) {
+            long ms = AuthService.userLockedRemainingMs(req.username);
+            String msg = "Utilizador bloqueado. Aguarde " + (ms / 1000) + " segundos.";
+            log("login_blocked_user", ip, req.username, "LOGIN", msg);
+            return Response.error(msg);
+        }
+
+        long sessionWaitMs = AuthService.sessionLimitRemainingMs(req.username);
+        if (sessionWaitMs > 0) {
+            String msg = "Demasiadas sessões novas para este utilizador. Aguarde " + (sessionWaitMs / 1000) + " segundos.";
+            log("login_throttled", ip, req.username, "LOGIN", msg);
+            return Response.error(msg);
+        }
+
+        String token = AuthService.login(req.username, req.password, ip);
+        if (token != null) {
+            var r = Response.okMsg("Login bem sucedido.");
+            r.token = token;
+            conn.authenticate(token); // associa já a sessão à ligação
+            log("login_success", ip, req.username, "LOGIN", "OK");
+            return r;
+        }
+        log("login_failure", ip, req.username, "LOGIN", "Credenciais inválidas ou bloqueado");
+        return Response.error("Credenciais inválidas ou bloqueado temporariamente.");
+    }
+
+    // ===== util =====
+
+    /** Marca cada frame com o requestId do pedido; respostas pré-serializadas recebem o campo à cabeça. */
+    private static final class RequestIdSink implements FrameSink {
+        private final FrameSink out;
+        private final long requestId;
+
+        RequestIdSink(FrameSink out, long requestId) {
+            this.out = out;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public Wire wire() {
+            return out.wire();
+        }
+
+        @Override
+        public void write(Object frame) throws IOException {
+            if (frame instanceof Response r) r.requestId = requestId;
+            else if (frame instanceof StreamFrame f) f.requestId = requestId;
+            out.write(frame);
+        }
+
+        @Override
+        public void writeRaw(byte[] frame) throws IOException {
+            out.writeRaw(out.wire().withRequestId(frame, requestId)); // o array em cache não é alterado
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /** Leva o token renovado na 1.ª resposta do pedido (frames em cache seguem tal e qual). */
+    private static final class RenewedTokenSink implements FrameSink {
+        private final FrameSink out;
+        private String token;
+
+        RenewedTokenSink(FrameSink out, String token) {
+            this.out = out;
+            this.token = token;
+        }
+
+        @Override
+        public Wire wire() {
+            return out.wire();
+        }
+
+        @Override
+        public void write(Object frame) throws IOException {
+            if (token != null && frame instanceof Response r && r.token == null) {
+                r.token = token;
+                token = null;
+            }
+            out.write(frame);
+        }
+
+        @Override
+        public void writeRaw(byte[] frame) throws IOException {
+            out.writeRaw(frame);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /** Encaminha para o logger UTF-8 com rotação diária. */
+    private static void log(String event, String ip, String user, String action, String message) {
+        server.util.JsonLogger.log(event, ip, user, action, message);
+    }
+}
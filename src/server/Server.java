@@ -1,9 +1,12 @@
 package server;
 
 import server.config.ServerConfig;
+import server.nio.NioServer;
 import server.service.PatientService;
 import server.handler.PatientHandler;
+import server.auth.AuthService;
 import server.dao.DbInit;
+import server.util.JsonLogger;
 
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -14,25 +17,47 @@ public class Server {
 
     public static void main(String[] args) {
         ServerConfig config = new ServerConfig("server.properties");
+        JsonLogger.configure(config.getLogQueueCapacity(), config.getLogOverflow(), config.getLogLagWarnMs());
+        AuthService.configure(config.getAuthTokenKey());
 
         try {
             // garante BD
-            DbInit.ensure("jdbc:sqlite:" + config.getDbFile());
+            DbInit.ensure("jdbc:sqlite:" + config.getDbFile(), config.getStorageProfile());
 
-            PatientService patientService = new PatientService(config.getDbFile());
+            PatientService patientService = new PatientService(config.getDbFile(), config.getDbReaders(),
+                    config.getStorageProfile(), config.getCacheMaxSnapshot(), config.getCacheMaxById(),
+                    config.getPushQueueCapacity());
             PatientHandler patientHandler = new PatientHandler(patientService);
+            RequestDispatcher dispatcher = new RequestDispatcher(patientHandler, patientService.changes());
 
-            // Thread pool (escala com CPU; mínimo 8)
-            int poolSize = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+            // Pool de negócio (escala com CPU; mínimo 8)
+            int poolSize = config.getWorkerThreads();
             ExecutorService executor = Executors.newFixedThreadPool(poolSize);
 
-            try (ServerSocket serverSocket = new ServerSocket(config.getPort())) {
-                System.out.println("Servidor a escutar na porta " + config.getPort() + " (pool=" + poolSize + ")");
-                while (true) {
-                    Socket socket = serverSocket.accept();
-                    executor.submit(new ClientHandler(socket, patientHandler));
+            try {
+                if ("pool".equals(config.getMode())) {
+                    // requests com requestId num pool à parte: as ligações ocupam todas as threads de 'executor'
+                    ExecutorService pipeline = Executors.newFixedThreadPool(poolSize);
+                    try {
+                        serveBlocking(config, dispatcher, executor, pipeline, "pool=" + poolSize);
+                    } finally {
+                        pipeline.shutdown();
+                    }
+                } else if ("virtual".equals(config.getMode())) {
+                    ExecutorService perConnection = newVirtualThreadExecutor();
+                    try {
+                        serveBlocking(config, dispatcher, perConnection, perConnection, "virtual threads");
+                    } finally {
+                        perConnection.shutdown();
+                    }
+                } else {
+                    System.out.println("Servidor (NIO) a escutar na porta " + config.getPort()
+                            + " (loops=" + config.getIoThreads() + ", pool=" + poolSize + ")");
+                    new NioServer(config.getPort(), config.getIoThreads(), config.getReadTimeoutMs(),
+                            dispatcher, executor).serve();
                 }
             } finally {
+                executor.shutdown();
                 patientService.close();
             }
 
@@ -40,4 +65,29 @@ public class Server {
             e.printStackTrace();
         }
     }
+
+    /** Modo clássico: uma thread por ligação (ClientHandler bloqueante), do pool ou virtual. */
+    private static void serveBlocking(ServerConfig config, RequestDispatcher dispatcher,
+                                      ExecutorService executor, ExecutorService pipeline,
+                                      String desc) throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(config.getPort())) {
+            System.out.println("Servidor a escutar na porta " + config.getPort() + " (" + desc + ")");
+            while (true) {
+                Socket socket = serverSocket.accept();
+                executor.submit(new ClientHandler(socket, dispatcher, config.getReadTimeoutMs(), pipeline));
+            }
+        }
+    }
+
+    /**
+     * Executor com uma virtual thread por tarefa. Obtido por reflexão para o
+     * projecto continuar a compilar em JDKs sem virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("server.mode=virtual requer Java 21 ou superior.", e);
+        }
+    }
 }
@@ -1,15 +1,25 @@
 package server.auth;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Auth em memória: utilizadores fixos, sessão por token com expiração,
  * contagem de falhas e bloqueios temporários por utilizador/IP.
+ * - Tokens assinados (TokenSigner) com utilizador e expiração: validar não consulta
+ *   nenhum mapa partilhado e os tokens sobrevivem a reinícios se a chave for fixa
+ * - Renovação deslizante: a meio do TTL o servidor emite um token novo (Response.token)
+ *   da mesma sessão (o id da sessão passa de token para token)
+ * - Revogação (LOGOUT) por sessão, num conjunto pequeno, até o último token dela expirar
+ * - Revogações e contadores ficam em ExpiringMap, varridos periodicamente. Os contadores são
+ *   limitados em tamanho (IPs de scanners não se acumulam); as revogações nunca saem antes
+ *   do prazo (sairia = token de novo válido) e ficam limitadas por utilizador, porque cada
+ *   utilizador só abre MAX_SESSIONS sessões por janela.
  */
 public class AuthService {
 
@@ -21,28 +31,82 @@ public class AuthService {
 
     // ===== Sessões =====
     private static final long TOKEN_TTL_MS = 30 * 60_000L; // 30 minutos
-    private static final ConcurrentHashMap<String, Session> TOKENS = new ConcurrentHashMap<>();
-    private record Session(String user, long expiresAtMs) {}
+    private static volatile TokenSigner SIGNER = new TokenSigner(TokenSigner.randomKey());
+    private static final ExpiringMap<String, Revoked> REVOKED = new ExpiringMap<>(60_000L); // sem evicção
+    private record Revoked(long expiresAtMs) implements ExpiringMap.Expiring {}
+
+    /** Sessão de um token válido: utilizador e fim da validade; sessionId é comum aos tokens renovados (revogação). */
+    public record Principal(String user, long expiresAtMs, String sessionId) {}
+
+    // muda a cada revogação ou troca de chave: sessões em cache nas ligações voltam a ser verificadas
+    private static final AtomicLong REVOCATIONS = new AtomicLong();
+
+    private static final LongAdder ISSUED   = new LongAdder();
+    private static final LongAdder VERIFIED = new LongAdder();
+    private static final LongAdder RENEWED  = new LongAdder();
+    private static final LongAdder REJECTED = new LongAdder();
+    private static final LongAdder THROTTLED = new LongAdder();  // logins recusados por excesso de sessões novas
 
     // ===== Rate limiting / lockouts =====
     private static final int  MAX_FAILS         = 2;                 // 5 falhas
     private static final long FAIL_WINDOW_MS    = 30_000L;      // em 10 min
     private static final long LOCK_DURATION_MS  = 60_000L;      // bloqueio 15 min
 
-    // Trackers por user e por IP
-    private static final ConcurrentHashMap<String, FailTracker> USER_FAILS = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<String, FailTracker> IP_FAILS   = new ConcurrentHashMap<>();
+    // Trackers por user e por IP (um scanner de muitos IPs só ocupa até MAX_TRACKED)
+    private static final int  MAX_TRACKED       = 50_000;
+    private static final ExpiringMap<String, FailTracker> USER_FAILS = new ExpiringMap<>(MAX_TRACKED, 10_000L);
+    private static final ExpiringMap<String, FailTracker> IP_FAILS   = new ExpiringMap<>(MAX_TRACKED, 10_000L);
+
+    // Sessões novas por utilizador (só logins com credenciais válidas): no máximo
+    // MAX_SESSIONS * (TOKEN_TTL_MS / SESSION_WINDOW_MS + 1) revogações por utilizador ao mesmo tempo
+    private static final int  MAX_SESSIONS      = 60;
+    private static final long SESSION_WINDOW_MS = 60_000L;
+    private static final ExpiringMap<String, SessionWindow> SESSION_STARTS = new ExpiringMap<>(MAX_TRACKED, 10_000L);
+
+    private static class SessionWindow implements ExpiringMap.Expiring {
+        final long windowStartMs;
+        int  started;
+
+        SessionWindow(long windowStartMs) {
+            this.windowStartMs = windowStartMs;
+        }
+
+        @Override
+        public long expiresAtMs() {
+            return windowStartMs + SESSION_WINDOW_MS;
+        }
+    }
 
-    private static class FailTracker {
+    private static class FailTracker implements ExpiringMap.Expiring {
         int  attempts;           // nº falhas no intervalo
         long windowStartMs;      // início da janela
         long lockedUntilMs;      // 0 = não bloqueado
+
+        /** Sem interesse depois de a janela e o bloqueio terminarem. */
+        @Override
+        public long expiresAtMs() {
+            return Math.max(windowStartMs + FAIL_WINDOW_MS, lockedUntilMs);
+        }
     }
 
     private static final DateTimeFormatter ISO = DateTimeFormatter.ISO_INSTANT;
 
     // ===== API =====
 
+    /**
+     * Chave HMAC dos tokens (auth.token.key). Vazia = chave aleatória por processo:
+     * os tokens deixam de valer quando o servidor reinicia. Tokens já emitidos com outra chave deixam de valer.
+     */
+    public static void configure(String tokenKey) {
+        if (tokenKey == null || tokenKey.isBlank()) {
+            System.out.println("auth.token.key não definido: chave aleatória (tokens não sobrevivem a reinícios).");
+            SIGNER = new TokenSigner(TokenSigner.randomKey());
+        } else {
+            SIGNER = new TokenSigner(tokenKey.getBytes(StandardCharsets.UTF_8));
+        }
+        REVOCATIONS.incrementAndGet();
+    }
+
     /** Tenta login. Se OK, cria token e devolve-o. Se bloqueado ou credenciais erradas, devolve null. */
     public static String login(String user, String pass, String ip) {
         long now = System.currentTimeMillis();
@@ -55,11 +119,14 @@ public class AuthService {
         // valida credenciais
         String expected = USERS.get(user);
         if (expected != null && expected.equals(pass)) {
+            if (!startSession(user, now)) {
+                THROTTLED.increment();
+                return null;
+            }
             // sucesso → limpa contadores e cria token
             recordSuccess(user, ip);
-            String token = UUID.randomUUID().toString();
-            TOKENS.put(token, new Session(user, now + TOKEN_TTL_MS));
-            return token;
+            ISSUED.increment();
+            return SIGNER.sign(user, now + TOKEN_TTL_MS, TokenSigner.newSessionId());
         }
 
         // falha → conta e pode bloquear
@@ -67,27 +134,52 @@ public class AuthService {
         return null;
     }
 
-    /** Verifica token (e renova expiração de forma deslizante). */
-    public static boolean isValid(String token) {
-        if (token == null || token.isBlank()) return false;
+    /** Sessão do token se a assinatura for válida e não tiver expirado nem sido revogado; senão null. */
+    public static Principal authenticate(String token) {
+        if (token == null || token.isBlank()) return null;
         long now = System.currentTimeMillis();
-        Session s = TOKENS.get(token);
-        if (s == null) return false;
-        if (s.expiresAtMs < now) {
-            TOKENS.remove(token);
-            return false;
-        }
-        // renovação deslizante: se passou de metade do TTL, estende
-        long ageLeft = s.expiresAtMs - now;
-        if (ageLeft < (TOKEN_TTL_MS / 2)) {
-            TOKENS.replace(token, new Session(s.user, now + TOKEN_TTL_MS));
+        VERIFIED.increment();
+        Principal p = SIGNER.verify(token);
+        if (p == null || p.expiresAtMs() <= now || (!REVOKED.isEmpty() && REVOKED.get(p.sessionId(), now) != null)) {
+            REJECTED.increment();
+            return null;
         }
-        return true;
+        return p;
+    }
+
+    /**
+     * Renovação deslizante: passada metade do TTL devolve um token novo (mesmo utilizador e sessão,
+     * TTL completo) que o cliente passa a usar; antes disso devolve null.
+     */
+    public static String renewIfStale(Principal p) {
+        long now = System.currentTimeMillis();
+        if (p.expiresAtMs() - now >= TOKEN_TTL_MS / 2) return null;
+        RENEWED.increment();
+        return SIGNER.sign(p.user(), now + TOKEN_TTL_MS, p.sessionId());
+    }
+
+    /**
+     * Invalida a sessão (LOGOUT): o token apresentado e todos os renovados antes ou depois dele.
+     * Guardada até expirar o token mais recente que a sessão pode ter (emitido no máximo agora).
+     */
+    public static void revoke(Principal p) {
+        long until = Math.max(p.expiresAtMs(), System.currentTimeMillis() + TOKEN_TTL_MS);
+        REVOKED.put(p.sessionId(), new Revoked(until));
+        REVOCATIONS.incrementAndGet();
+    }
+
+    /** Geração de revogações: diferente da guardada = a sessão em cache tem de ser verificada de novo. */
+    public static long revocations() {
+        return REVOCATIONS.get();
+    }
+
+    public static boolean isValid(String token) {
+        return authenticate(token) != null;
     }
 
     public static String userFromToken(String token) {
-        Session s = TOKENS.get(token);
-        return (s == null) ? null : s.user;
+        Principal p = authenticate(token);
+        return (p == null) ? null : p.user();
     }
 
     /** True se o utilizador está bloqueado neste instante. */
@@ -102,34 +194,59 @@ public class AuthService {
 
     public static boolean isUserLocked(String user, long nowMs) {
         if (user == null) return false;
-        FailTracker ft = USER_FAILS.get(user);
+        FailTracker ft = USER_FAILS.get(user, nowMs);
         return ft != null && ft.lockedUntilMs > nowMs;
     }
 
     public static boolean isIpLocked(String ip, long nowMs) {
         if (ip == null) return false;
-        FailTracker ft = IP_FAILS.get(ip);
+        FailTracker ft = IP_FAILS.get(ip, nowMs);
         return ft != null && ft.lockedUntilMs > nowMs;
     }
 
     /** Milissegundos restantes de bloqueio (user) — 0 se não bloqueado. */
     public static long userLockedRemainingMs(String user) {
-        FailTracker ft = USER_FAILS.get(user);
+        if (user == null) return 0;
         long now = System.currentTimeMillis();
+        FailTracker ft = USER_FAILS.get(user, now);
         if (ft == null || ft.lockedUntilMs <= now) return 0;
         return ft.lockedUntilMs - now;
     }
 
+    /** Milissegundos até o utilizador poder abrir outra sessão (MAX_SESSIONS por janela) — 0 se já pode. */
+    public static long sessionLimitRemainingMs(String user) {
+        if (user == null) return 0;
+        long now = System.currentTimeMillis();
+        SessionWindow w = SESSION_STARTS.get(user, now);
+        if (w == null || w.started < MAX_SESSIONS) return 0;
+        return w.expiresAtMs() - now;
+    }
+
     /** Milissegundos restantes de bloqueio (IP) — 0 se não bloqueado. */
     public static long ipLockedRemainingMs(String ip) {
-        FailTracker ft = IP_FAILS.get(ip);
+        if (ip == null) return 0;
         long now = System.currentTimeMillis();
+        FailTracker ft = IP_FAILS.get(ip, now);
         if (ft == null || ft.lockedUntilMs <= now) return 0;
         return ft.lockedUntilMs - now;
     }
 
     // ===== Internos =====
 
+    /** Conta uma sessão nova do utilizador; false se já abriu MAX_SESSIONS nesta janela. */
+    private static boolean startSession(String user, long now) {
+        boolean[] started = {false};
+        SESSION_STARTS.compute(user, (k, w) -> {
+            if (w == null || w.expiresAtMs() <= now) w = new SessionWindow(now);
+            if (w.started < MAX_SESSIONS) {
+                w.started++;
+                started[0] = true;
+            }
+            return w;
+        });
+        return started[0];
+    }
+
     private static void recordFailed(String user, String ip, long now) {
         bump(USER_FAILS, user, now);
         bump(IP_FAILS, ip, now);
@@ -140,7 +257,7 @@ public class AuthService {
         reset(IP_FAILS, ip);
     }
 
-    private static void bump(ConcurrentHashMap<String, FailTracker> map, String key, long now) {
+    private static void bump(ExpiringMap<String, FailTracker> map, String key, long now) {
         if (key == null) return;
         map.compute(key, (k, ft) -> {
             if (ft == null) ft = new FailTracker();
@@ -163,11 +280,20 @@ public class AuthService {
         });
     }
 
-    private static void reset(ConcurrentHashMap<String, FailTracker> map, String key) {
+    private static void reset(ExpiringMap<String, FailTracker> map, String key) {
         if (key == null) return;
         map.remove(key);
     }
 
+    /** Ex.: auth{issued=12, verified=40, renewed=3, rejected=1, revoked=2, throttled=0, trackedUsers=1, trackedIps=3, expired=40, evicted=0} */
+    public static String stats() {
+        return "auth{issued=" + ISSUED.sum() + ", verified=" + VERIFIED.sum() + ", renewed=" + RENEWED.sum() + ", rejected=" + REJECTED.sum()
+                + ", revoked=" + REVOKED.size() + ", throttled=" + THROTTLED.sum() + ", trackedUsers=" + USER_FAILS.size()
+                + ", trackedIps=" + IP_FAILS.size()
+                + ", expired=" + (REVOKED.expired() + USER_FAILS.expired() + IP_FAILS.expired())
+                + ", evicted=" + (USER_FAILS.evicted() + IP_FAILS.evicted()) + "}";
+    }
+
     // Apenas utilitário para logs ISO-8601 (se precisares noutro sítio)
     public static String nowIso() {
         return ISO.format(Instant.now().atOffset(ZoneOffset.UTC));
@@ -0,0 +1,119 @@
+package server.auth;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Mapa limitado com expiração para o estado de autenticação (sessões, falhas por user/IP).
+ * - Cada valor sabe até quando é válido (Expiring); expirado = ausente
+ * - Uma thread partilhada varre periodicamente e remove os expirados, mesmo que ninguém os volte a pedir
+ * - Acima de maxEntries sai o menos usado (LRU, como no PatientCache), para o heap não crescer sem limite;
+ *   sem maxEntries nada sai antes do prazo (quem usa o mapa limita o que lá põe)
+ * - Acesso sincronizado: as operações são todas O(1) excepto o varrimento
+ */
+final class ExpiringMap<K, V extends ExpiringMap.Expiring> {
+
+    /** Valor com prazo. */
+    interface Expiring {
+        long expiresAtMs();
+    }
+
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "auth-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<K, V> map; // ordem de acesso; protegido por 'this'
+    private volatile int size;   // cópia de map.size() para isEmpty() sem lock
+
+    // ===== métricas =====
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /** Sem limite de tamanho: cada entrada fica até expirar. */
+    ExpiringMap(long sweepEveryMs) {
+        this(Integer.MAX_VALUE, sweepEveryMs);
+    }
+
+    ExpiringMap(int maxEntries, long sweepEveryMs) {
+        this.map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > maxEntries) {
+                    evicted.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        SWEEPER.scheduleAtFixedRate(() -> sweep(System.currentTimeMillis()),
+                sweepEveryMs, sweepEveryMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Valor ainda válido em 'now', ou null (um expirado encontrado aqui é logo removido). */
+    synchronized V get(K key, long now) {
+        V v = map.get(key);
+        if (v == null || v.expiresAtMs() > now) return v;
+        map.remove(key);
+        size = map.size();
+        expired.increment();
+        return null;
+    }
+
+    synchronized void put(K key, V value) {
+        map.put(key, value);
+        size = map.size();
+    }
+
+    /** Como Map.compute; devolver null remove a entrada. */
+    synchronized V compute(K key, BiFunction<? super K, ? super V, ? extends V> fn) {
+        V v = map.compute(key, fn);
+        size = map.size();
+        return v;
+    }
+
+    synchronized void remove(K key) {
+        map.remove(key);
+        size = map.size();
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Sem lock: o caso normal (nada guardado) não disputa o mapa. */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Remove tudo o que expirou até 'now'; devolve quantos saíram. */
+    synchronized int sweep(long now) {
+        int n = 0;
+        for (Iterator<V> it = map.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAtMs() <= now) {
+                it.remove();
+                n++;
+            }
+        }
+        size = map.size();
+        expired.add(n);
+        return n;
+    }
+
+    /** Entradas removidas por expiração (no varrimento ou ao serem pedidas). */
+    long expired() {
+        return expired.sum();
+    }
+
+    /** Entradas removidas por excesso (LRU). */
+    long evicted() {
+        return evicted.sum();
+    }
+}
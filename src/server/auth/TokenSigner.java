@@ -0,0 +1,96 @@
+package server.auth;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Tokens compactos assinados (HMAC-SHA256), verificáveis sem estado partilhado:
+ *   base64url(user) "." expiração (ms, base 36) "." id da sessão "." assinatura
+ * - A assinatura cobre tudo antes do último '.' e vai truncada a 16 bytes
+ * - O id da sessão é aleatório no login e passa inalterado para os tokens renovados,
+ *   para a revogação (LOGOUT) apanhar a cadeia toda; não é secreto
+ * - Mac não é thread-safe: uma instância por thread
+ */
+final class TokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SIG_BYTES = 16;
+    private static final int ID_BYTES = 9;
+
+    private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder B64D = Base64.getUrlDecoder();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ThreadLocal<Mac> macs;
+
+    TokenSigner(byte[] key) {
+        SecretKeySpec spec = new SecretKeySpec(key, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(spec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " indisponível", e);
+            }
+        });
+        macs.get(); // chave inválida falha já, não no 1.º login
+    }
+
+    /** Chave aleatória (tokens deixam de valer quando o processo reinicia). */
+    static byte[] randomKey() {
+        byte[] key = new byte[32];
+        RANDOM.nextBytes(key);
+        return key;
+    }
+
+    /** Id para uma sessão nova (login). */
+    static String newSessionId() {
+        byte[] id = new byte[ID_BYTES];
+        RANDOM.nextBytes(id);
+        return B64.encodeToString(id);
+    }
+
+    /** sessionId vem de newSessionId() ou, numa renovação, do token anterior. */
+    String sign(String user, long expiresAtMs, String sessionId) {
+        String body = B64.encodeToString(user.getBytes(StandardCharsets.UTF_8))
+                + "." + Long.toString(expiresAtMs, 36)
+                + "." + sessionId;
+        return body + "." + B64.encodeToString(signature(body));
+    }
+
+    /** Conteúdo de um token com assinatura válida (expirado ou não); null se malformado ou adulterado. */
+    AuthService.Principal verify(String token) {
+        int sigAt = token.lastIndexOf('.');
+        if (sigAt <= 0) return null;
+        String body = token.substring(0, sigAt);
+        byte[] sig;
+        try {
+            sig = B64D.decode(token.substring(sigAt + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(sig, signature(body))) return null;  // tempo constante
+
+        // assinatura válida: o formato foi escrito por sign()
+        int a = body.indexOf('.');
+        int b = body.indexOf('.', a + 1);
+        if (a < 0 || b < 0) return null;
+        String user = new String(B64D.decode(body.substring(0, a)), StandardCharsets.UTF_8);
+        long expiresAtMs = Long.parseLong(body, a + 1, b, 36);
+        return new AuthService.Principal(user, expiresAtMs, body.substring(b + 1));
+    }
+
+    private byte[] signature(String body) {
+        Mac mac = macs.get();
+        byte[] full = mac.doFinal(body.getBytes(StandardCharsets.US_ASCII));
+        byte[] sig = new byte[SIG_BYTES];
+        System.arraycopy(full, 0, sig, 0, SIG_BYTES);
+        return sig;
+    }
+}
@@ -1,5 +1,8 @@
 package server.config;
 
+import server.dao.StorageProfile;
+import server.util.JsonLogger;
+
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
@@ -8,6 +11,22 @@ public class ServerConfig {
     private int port;
     private String dbFile;
 
+    // Front-end de rede: "nio" (selector, por defeito), "pool" (thread por ligação)
+    // ou "virtual" (virtual thread por ligação, requer Java 21+)
+    private String mode;
+    private int readTimeoutMs;
+    private int ioThreads;
+    private int workerThreads;
+    private int dbReaders;
+    private StorageProfile storageProfile;
+    private int cacheMaxSnapshot;
+    private int cacheMaxById;
+    private int pushQueueCapacity;
+    private int logQueueCapacity;
+    private JsonLogger.Overflow logOverflow;
+    private long logLagWarnMs;
+    private String authTokenKey;
+
     public ServerConfig(String configFilePath) {
         Properties props = new Properties();
         try (FileInputStream fis = new FileInputStream(configFilePath)) {
@@ -19,6 +38,38 @@ public class ServerConfig {
         // Porta e ficheiro de BD com defaults ajustados
         this.port = Integer.parseInt(props.getProperty("server.port", "9090"));
         this.dbFile = props.getProperty("db.file", "clinic.db");
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.mode = props.getProperty("server.mode", "nio").trim().toLowerCase();
+        this.readTimeoutMs = Integer.parseInt(props.getProperty("server.read.timeout.ms", "7000"));
+        this.ioThreads = Integer.parseInt(props.getProperty("server.io.threads", String.valueOf(Math.max(1, cores / 2))));
+        this.workerThreads = Integer.parseInt(props.getProperty("server.worker.threads", String.valueOf(Math.max(8, cores * 2))));
+        this.dbReaders = Integer.parseInt(props.getProperty("db.pool.readers", "4"));
+
+        // Cache de pacientes: snapshot só se a tabela couber; LRU para GET por id
+        this.cacheMaxSnapshot = Integer.parseInt(props.getProperty("cache.max.snapshot", "50000"));
+        this.cacheMaxById = Integer.parseInt(props.getProperty("cache.max.byid", "10000"));
+
+        // SUBSCRIBE: eventos em espera por ligação antes de descartar e pedir resync
+        this.pushQueueCapacity = Integer.parseInt(props.getProperty("push.queue.capacity", "256"));
+
+        // Log assíncrono: eventos em espera; cheio = "drop" (descarta e conta) ou "block" (espera)
+        this.logQueueCapacity = Integer.parseInt(props.getProperty("log.queue.capacity", "8192"));
+        this.logOverflow = JsonLogger.Overflow.valueOf(props.getProperty("log.overflow", "drop").trim().toUpperCase());
+        this.logLagWarnMs = Long.parseLong(props.getProperty("log.lag.warn.ms", "1000"));
+
+        // Segredo HMAC dos tokens; vazio = aleatório por processo (tokens não sobrevivem a reinícios)
+        this.authTokenKey = props.getProperty("auth.token.key", "").trim();
+
+        // Perfil SQLite (PRAGMAs); defaults = WAL + synchronous=NORMAL
+        StorageProfile d = StorageProfile.defaults();
+        this.storageProfile = new StorageProfile(
+                props.getProperty("db.journal.mode", d.journalMode()),
+                props.getProperty("db.synchronous", d.synchronous()),
+                Long.parseLong(props.getProperty("db.mmap.size", String.valueOf(d.mmapSizeBytes()))),
+                Integer.parseInt(props.getProperty("db.cache.size.kb", String.valueOf(d.cacheSizeKb()))),
+                props.getProperty("db.temp.store", d.tempStore()),
+                Integer.parseInt(props.getProperty("db.busy.timeout.ms", String.valueOf(d.busyTimeoutMs()))));
     }
 
     public int getPort() {
@@ -29,8 +80,67 @@ public class ServerConfig {
         return dbFile;
     }
 
+    public String getMode() {
+        return mode;
+    }
+
+    /** Tempo máximo sem receber dados antes de fechar a ligação (ms). */
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    /** Nº de event loops (Selector) no modo NIO. */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /** Tamanho do pool de negócio (BD/validação); no modo "pool" é também o nº de ligações simultâneas. */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /** Nº de ligações de leitura no pool JDBC (a escrita usa sempre 1 ligação). */
+    public int getDbReaders() {
+        return dbReaders;
+    }
+
+    public int getCacheMaxSnapshot() {
+        return cacheMaxSnapshot;
+    }
+
+    public int getCacheMaxById() {
+        return cacheMaxById;
+    }
+
+    public int getPushQueueCapacity() {
+        return pushQueueCapacity;
+    }
+
+    public int getLogQueueCapacity() {
+        return logQueueCapacity;
+    }
+
+    public JsonLogger.Overflow getLogOverflow() {
+        return logOverflow;
+    }
+
+    /** Eventos escritos mais tarde do que isto contam como atrasados nas estatísticas (ms). */
+    public long getLogLagWarnMs() {
+        return logLagWarnMs;
+    }
+
+    /** Segredo partilhado pelas instâncias que aceitam os mesmos tokens. */
+    public String getAuthTokenKey() {
+        return authTokenKey;
+    }
+
+    public StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
     @Override
     public String toString() {
-        return "ServerConfig{port=" + port + ", dbFile='" + dbFile + "'}";
+        return "ServerConfig{port=" + port + ", dbFile='" + dbFile + "', mode=" + mode
+                + ", ioThreads=" + ioThreads + ", workerThreads=" + workerThreads + ", dbReaders=" + dbReaders + ", " + storageProfile + "}";
     }
 }
@@ -0,0 +1,208 @@
+package server.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool limitado de ligações JDBC para SQLite:
+ * - N ligações de leitura (partilhadas por todas as threads via fila)
+ * - 1 ligação de escrita (o SQLite só admite um escritor de cada vez)
+ * - Cada ligação guarda os seus PreparedStatement (cache por SQL)
+ * - Métricas: tempo de espera, ligações activas e livres
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /** Trabalho executado com uma ligação emprestada. */
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T run(PooledConnection c) throws SQLException;
+    }
+
+    private static final long BORROW_TIMEOUT_MS = 10_000L;
+
+    private final List<PooledConnection> all = new ArrayList<>();
+    private final BlockingQueue<PooledConnection> readers;
+    private final BlockingQueue<PooledConnection> writer = new ArrayBlockingQueue<>(1);
+
+    // ===== métricas =====
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    private final StorageProfile profile;
+
+    public ConnectionPool(String url, int readerCount, StorageProfile profile) throws SQLException {
+        this.profile = profile;
+        int n = Math.max(1, readerCount);
+        this.readers = new ArrayBlockingQueue<>(n);
+        try {
+            for (int i = 0; i < n; i++) readers.add(open(url));
+            writer.add(open(url));
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private PooledConnection open(String url) throws SQLException {
+        Connection c = DriverManager.getConnection(url);
+        try {
+            // inclui busy_timeout: espera pelo lock em vez de falhar logo com SQLITE_BUSY
+            profile.applyToConnection(c);
+        } catch (SQLException e) {
+            c.close();
+            throw e;
+        }
+        PooledConnection pc = new PooledConnection(c);
+        all.add(pc);
+        return pc;
+    }
+
+    /** Executa 'work' com uma ligação de leitura. */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        return with(readers, work);
+    }
+
+    /** Executa 'work' com a (única) ligação de escrita. */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        return with(writer, work);
+    }
+
+    /** Executa 'work' na ligação de escrita numa só transacção (commit no fim, rollback se falhar). */
+    public <T> T writeTransaction(SqlWork<T> work) throws SQLException {
+        return write(c -> {
+            Connection raw = c.raw();
+            raw.setAutoCommit(false);
+            try {
+                T result = work.run(c);
+                raw.commit();
+                return result;
+            } catch (SQLException | RuntimeException | Error e) {
+                raw.rollback(); // antes do setAutoCommit(true), que confirmaria o que ficou a meio
+                throw e;
+            } finally {
+                raw.setAutoCommit(true);
+            }
+        });
+    }
+
+    private <T> T with(BlockingQueue<PooledConnection> q, SqlWork<T> work) throws SQLException {
+        PooledConnection c = borrow(q);
+        try {
+            return work.run(c);
+        } finally {
+            active.decrementAndGet();
+            q.add(c);
+        }
+    }
+
+    private PooledConnection borrow(BlockingQueue<PooledConnection> q) throws SQLException {
+        long t0 = System.nanoTime();
+        PooledConnection c;
+        try {
+            c = q.poll(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrompido à espera de ligação à BD.", e);
+        }
+        waitNanos.add(System.nanoTime() - t0);
+        if (c == null) {
+            timeouts.increment();
+            throw new SQLException("Sem ligações livres à BD (timeout " + BORROW_TIMEOUT_MS + " ms).");
+        }
+        borrows.increment();
+        active.incrementAndGet();
+        return c;
+    }
+
+    // ===== métricas =====
+
+    public Stats stats() {
+        long b = borrows.sum();
+        return new Stats(active.get(), readers.size() + writer.size(), b,
+                b == 0 ? 0 : waitNanos.sum() / b / 1_000, timeouts.sum());
+    }
+
+    /** Fotografia das métricas do pool (tempo médio de espera em microssegundos). */
+    public record Stats(int active, int idle, long borrows, long avgWaitMicros, long timeouts) {
+        @Override
+        public String toString() {
+            return "pool{active=" + active + ", idle=" + idle + ", borrows=" + borrows
+                    + ", avgWaitUs=" + avgWaitMicros + ", timeouts=" + timeouts + "}";
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        SQLException first = null;
+        for (PooledConnection c : all) {
+            try {
+                c.close();
+            } catch (SQLException e) {
+                if (first == null) first = e;
+            }
+        }
+        all.clear();
+        if (first != null) throw first;
+    }
+
+    /**
+     * Ligação do pool com cache de PreparedStatement por SQL.
+     * Só é usada por uma thread de cada vez (enquanto emprestada).
+     */
+    public static final class PooledConnection {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> cache = new HashMap<>();
+
+        private PooledConnection(Connection conn) {
+            this.conn = conn;
+        }
+
+        /** PreparedStatement em cache (não fechar: pertence à ligação). */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = cache.get(sql);
+            if (ps == null) {
+                ps = conn.prepareStatement(sql);
+                cache.put(sql, ps);
+            }
+            return ps;
+        }
+
+        /** Idem, com devolução de chaves geradas. */
+        public PreparedStatement prepareWithKeys(String sql) throws SQLException {
+            String k = "#keys:" + sql;
+            PreparedStatement ps = cache.get(k);
+            if (ps == null) {
+                ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                cache.put(k, ps);
+            }
+            return ps;
+        }
+
+        /** Acesso directo (DDL, transacções). */
+        public Connection raw() {
+            return conn;
+        }
+
+        private void close() throws SQLException {
+            for (PreparedStatement ps : cache.values()) {
+                try { ps.close(); } catch (SQLException ignore) {}
+            }
+            cache.clear();
+            if (!conn.isClosed()) conn.close();
+        }
+    }
+}
@@ -4,28 +4,23 @@ import java.sql.*;
 
 public class DbInit {
   public static void ensure(String dbFileOrUrl) throws SQLException {
+    ensure(dbFileOrUrl, StorageProfile.defaults());
+  }
+
+  public static void ensure(String dbFileOrUrl, StorageProfile profile) throws SQLException {
     // aceita "clinic.db" ou "jdbc:sqlite:clinic.db"
     String url = dbFileOrUrl.startsWith("jdbc:") ? dbFileOrUrl : "jdbc:sqlite:" + dbFileOrUrl;
 
-    try (Connection c = DriverManager.getConnection(url);
-         Statement st = c.createStatement()) {
+    try (Connection c = DriverManager.getConnection(url)) {
+
+      // journal_mode fica gravado no ficheiro; as restantes PRAGMAs são aplicadas pelo pool
+      String mode = profile.applyJournalMode(c);
+      if (mode == null || !mode.equalsIgnoreCase(profile.journalMode())) {
+        System.out.println("Aviso: journal_mode pedido=" + profile.journalMode() + ", efectivo=" + mode);
+      }
 
-      st.executeUpdate("""
-        CREATE TABLE IF NOT EXISTS patient (
-          id               INTEGER PRIMARY KEY AUTOINCREMENT,
-          nome             TEXT    NOT NULL,
-          idade            INTEGER,
-          bi               TEXT,
-          telefone         TEXT,
-          endereco         TEXT,
-          email            TEXT,
-          genero           TEXT,
-          dataNascimento   TEXT,   -- ISO yyyy-MM-dd
-          historicoMedico  TEXT,
-          planoSaude       TEXT,
-          UNIQUE(nome, dataNascimento)
-        )
-      """);
+      int version = SchemaMigrations.migrate(c);
+      System.out.println("Esquema da BD na versão " + version);
     }
   }
 }
@@ -0,0 +1,245 @@
+package server.dao;
+
+import server.dao.ConnectionPool.PooledConnection;
+import server.dao.ConnectionPool.SqlWork;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Escritor único com group commit:
+ * - As threads de negócio enfileiram mutações e esperam pelo seu resultado (future)
+ * - Uma thread junta o que estiver na fila (até maxGroup, ou até lingerNanos depois do 1.º)
+ *   e aplica tudo numa só transacção na ligação de escrita: um lock e um commit por grupo
+ * - Cada mutação corre num SAVEPOINT: se falhar só ela é desfeita, as outras seguem
+ * - Quem espera nunca fica preso: um erro inesperado falha o grupo (a thread continua), o fecho
+ *   falha o que ainda está na fila, e uma mutação que não começou em QUEUE_TIMEOUT_MS é cancelada
+ */
+public final class GroupCommitWriter implements AutoCloseable {
+
+    /** Uma mutação que não começou a ser aplicada ao fim disto é cancelada (BD presa). */
+    private static final long QUEUE_TIMEOUT_MS = 30_000;
+    private static final long WAIT_SLICE_MS = 1_000;
+
+    private static final int PENDING = 0, RUNNING = 1, CANCELLED = 2;
+
+    private static final class Mutation<T> {
+        final SqlWork<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        T pending; // resultado, entregue só depois do commit do grupo
+
+        Mutation(SqlWork<T> work) {
+            this.work = work;
+        }
+
+        /** Escritor: false se quem esperava já desistiu (não aplicar). */
+        boolean start() {
+            return state.compareAndSet(PENDING, RUNNING);
+        }
+
+        /** Quem espera: só cancela o que ainda não começou (o resto vai até ao fim). */
+        boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        void run(PooledConnection c) throws SQLException {
+            pending = work.run(c);
+        }
+
+        void complete() {
+            result.complete(pending);
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int maxGroup;
+    private final long lingerNanos;
+    private final BlockingQueue<Mutation<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // métricas
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder mutations = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAccumulator largestGroup = new LongAccumulator(Math::max, 0);
+
+    public GroupCommitWriter(ConnectionPool pool, int maxGroup, long lingerMicros) {
+        if (maxGroup <= 0) throw new IllegalArgumentException("maxGroup deve ser positivo.");
+        this.pool = pool;
+        this.maxGroup = maxGroup;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, lingerMicros));
+        this.thread = new Thread(this::loop, "db-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Enfileira 'work' e bloqueia até o grupo em que foi aplicado estar confirmado.
+     * Se ao fim de QUEUE_TIMEOUT_MS ainda não tiver começado, desiste sem a aplicar.
+     */
+    public <T> T execute(SqlWork<T> work) throws SQLException {
+        Mutation<T> m = enqueue(work);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUEUE_TIMEOUT_MS);
+        try {
+            while (true) {
+                try {
+                    return m.result.get(WAIT_SLICE_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException te) {
+                    if (!thread.isAlive()) {
+                        m.cancel();
+                        throw new SQLException("Escritor da BD terminou.");
+                    }
+                    if (System.nanoTime() - deadline > 0 && m.cancel()) {
+                        queue.remove(m);
+                        failures.increment();
+                        throw new SQLException("Tempo esgotado à espera do escritor da BD ("
+                                + QUEUE_TIMEOUT_MS + " ms); a escrita não foi aplicada.");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrompido à espera da escrita.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException se) throw se;
+            if (cause instanceof RuntimeException re) throw re;
+            throw new SQLException(cause);
+        }
+    }
+
+    /**
+     * Enfileira 'work' sem esperar (manutenção, p.ex. poda do registo de alterações): corre no
+     * próximo grupo como as outras mutações. O future completa depois do commit desse grupo.
+     */
+    public <T> CompletableFuture<T> submit(SqlWork<T> work) throws SQLException {
+        return enqueue(work).result;
+    }
+
+    private <T> Mutation<T> enqueue(SqlWork<T> work) throws SQLException {
+        if (closed) throw new SQLException("Escritor da BD encerrado.");
+        Mutation<T> m = new Mutation<>(work);
+        queue.add(m);
+        // close() entre o teste e o add: o último esvaziamento da fila pode já ter passado
+        if (closed && queue.remove(m)) throw new SQLException("Escritor da BD encerrado.");
+        return m;
+    }
+
+    // ===== thread do escritor =====
+
+    private void loop() {
+        List<Mutation<?>> group = new ArrayList<>(maxGroup);
+        while (!closed) {
+            try {
+                group.add(queue.take());
+                collect(group);
+                commit(group);
+            } catch (InterruptedException e) {
+                fail(group, new SQLException("Escritor da BD encerrado."));
+                break;
+            } catch (Throwable t) {
+                // erro fora do SAVEPOINT (Error, bug): o grupo falha mas a thread continua
+                fail(group, t);
+            } finally {
+                group.clear();
+            }
+        }
+        // encerrado: quem ainda está à espera recebe erro
+        Mutation<?> m;
+        while ((m = queue.poll()) != null) {
+            m.result.completeExceptionally(new SQLException("Escritor da BD encerrado."));
+        }
+    }
+
+    /** Completa com erro as mutações do grupo que ainda não tinham resultado. */
+    private void fail(List<Mutation<?>> group, Throwable t) {
+        for (Mutation<?> m : group) {
+            if (m.result.completeExceptionally(t)) failures.increment();
+        }
+    }
+
+    /** Junta ao grupo o que já está na fila e, com linger, o que chegar entretanto. */
+    private void collect(List<Mutation<?>> group) throws InterruptedException {
+        queue.drainTo(group, maxGroup - group.size());
+        if (lingerNanos == 0) return;
+        long deadline = System.nanoTime() + lingerNanos;
+        while (group.size() < maxGroup) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) break;
+            Mutation<?> m = queue.poll(left, TimeUnit.NANOSECONDS);
+            if (m == null) break;
+            group.add(m);
+            queue.drainTo(group, maxGroup - group.size());
+        }
+    }
+
+    private void commit(List<Mutation<?>> group) {
+        boolean[] ok = new boolean[group.size()];
+        try {
+            pool.writeTransaction(c -> {
+                for (int i = 0; i < group.size(); i++) ok[i] = applyIsolated(c, group.get(i));
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            // commit falhou: nada do grupo ficou gravado
+            for (Mutation<?> m : group) m.result.completeExceptionally(e);
+            failures.add(group.size());
+            return;
+        }
+        groups.increment();
+        mutations.add(group.size());
+        largestGroup.accumulate(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            if (ok[i]) group.get(i).complete();
+        }
+    }
+
+    /** Corre uma mutação num SAVEPOINT; se falhar, desfaz só essa e completa o future com o erro. */
+    private boolean applyIsolated(PooledConnection c, Mutation<?> m) throws SQLException {
+        if (!m.start()) return false; // cancelada por timeout: quem esperava já recebeu erro
+        c.prepare("SAVEPOINT mutation").execute();
+        try {
+            m.run(c);
+            c.prepare("RELEASE mutation").execute();
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            c.prepare("ROLLBACK TO mutation").execute();
+            c.prepare("RELEASE mutation").execute();
+            failures.increment();
+            m.result.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long g = groups.sum();
+        long n = mutations.sum();
+        return "writer{groups=" + g + ", mutations=" + n
+                + ", avgGroup=" + (g == 0 ? 0 : String.format("%.1f", (double) n / g))
+                + ", maxGroup=" + largestGroup.get() + ", failures=" + failures.sum() + "}";
+    }
+}
@@ -1,104 +1,300 @@
 package server.dao;
 
 import common.model.Patient;
+import common.model.PatientSummary;
+import server.dao.ConnectionPool.PooledConnection;
+import server.dao.ConnectionPool.SqlWork;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class PatientDAO {
 
+    /** Recebe linhas uma a uma (p.ex. para escrever directamente no socket). */
+    @FunctionalInterface
+    public interface RowSink<T> {
+        void accept(T row) throws IOException;
+    }
+
+    private static final int DEFAULT_READERS = 4;
+
+    // group commit das escritas de um registo: até 64 por transacção, sem espera extra
+    // (o grupo forma-se com o que chega enquanto o anterior está a ser confirmado)
+    private static final int WRITE_GROUP_MAX = 64;
+    private static final long WRITE_GROUP_LINGER_US = 0;
+
+    private static final String SQL_INSERT = "INSERT OR IGNORE INTO patient " +
+            "(nome, idade, bi, telefone, endereco, email, genero, dataNascimento, historicoMedico, planoSaude) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // create-or-get / upsert pela chave (nome, dataNascimento) sem escrever quando nada muda:
+    // o INSERT devolve o id só se criou; com conflito não toca na linha (nem nos triggers).
+    private static final String SQL_CREATE =
+            "INSERT INTO patient " +
+            "(nome, idade, bi, telefone, endereco, email, genero, dataNascimento, historicoMedico, planoSaude) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (nome, dataNascimento) DO NOTHING RETURNING id";
+    // upsert depois de um conflito: só actualiza (e só devolve o id) se algum campo mudou;
+    // parâmetros numerados pela ordem de bindInsert, para o mesmo bind servir as duas instruções
+    static final String SQL_UPDATE_IF_CHANGED = """
+            UPDATE patient
+            SET idade = ?2, bi = ?3, telefone = ?4, endereco = ?5, email = ?6,
+                genero = ?7, historicoMedico = ?9, planoSaude = ?10
+            WHERE nome = ?1 AND dataNascimento = ?8
+              AND (idade, bi, telefone, endereco, email, genero, historicoMedico, planoSaude)
+                  IS NOT (?2, ?3, ?4, ?5, ?6, ?7, ?9, ?10)
+            RETURNING id
+        """;
+
+    private static final String SQL_UPDATE_BY_ID = """
+            UPDATE patient
+            SET nome = ?, idade = ?, bi = ?, telefone = ?, endereco = ?, email = ?,
+                genero = ?, dataNascimento = ?, historicoMedico = ?, planoSaude = ?
+            WHERE id = ?
+        """;
+
+    // As consultas de lista e de procura são package-private para o SchemaMigrationsTest verificar os planos.
+    static final String SQL_UPDATE_BY_NOME_DATA = """
+            UPDATE patient
+            SET idade = ?, bi = ?, telefone = ?, endereco = ?, email = ?,
+                genero = ?, historicoMedico = ?, planoSaude = ?
+            WHERE nome = ? AND dataNascimento = ?
+            RETURNING id
+        """;
+
+    private static final String COLS =
+            "id, nome, idade, bi, telefone, endereco, email, genero, dataNascimento, historicoMedico, planoSaude";
+
+    static final String SQL_SELECT_ALL = "SELECT " + COLS + " FROM patient ORDER BY nome";
+
+    // keyset: (nome, id) é único e segue o índice idx_patient_nome (nome, rowid)
+    static final String SQL_PAGE_FIRST =
+            "SELECT " + COLS + " FROM patient ORDER BY nome, id LIMIT ?";
+    static final String SQL_PAGE_AFTER =
+            "SELECT " + COLS + " FROM patient WHERE (nome, id) > (?, ?) ORDER BY nome, id LIMIT ?";
+
+    // projecção para listas: sem endereco/historicoMedico; LIMIT -1 = sem limite
+    private static final String SUMMARY_COLS = "id, nome, idade, bi, telefone, email, planoSaude, dataNascimento";
+    static final String SQL_SUMMARY_FIRST =
+            "SELECT " + SUMMARY_COLS + " FROM patient ORDER BY nome, id LIMIT ?";
+    static final String SQL_SUMMARY_AFTER =
+            "SELECT " + SUMMARY_COLS + " FROM patient WHERE (nome, id) > (?, ?) ORDER BY nome, id LIMIT ?";
+
+    static final String SQL_BY_ID = "SELECT " + COLS + " FROM patient WHERE id = ?";
+
+    private static final String SQL_DATA_VERSION = "SELECT version FROM data_version WHERE id = 1";
+
+    // delta: ids alterados depois de uma versão; sem linha em patient = removido
+    private static final String SQL_MIN_CHANGE = "SELECT MIN(version) FROM patient_change";
+    private static final String SQL_CHANGES_SINCE =
+            "SELECT c.patient_id, p.id, p.nome, p.idade, p.bi, p.telefone, p.email, p.planoSaude, p.dataNascimento" +
+            " FROM (SELECT DISTINCT patient_id FROM patient_change WHERE version > ? LIMIT ?) c" +
+            " LEFT JOIN patient p ON p.id = c.patient_id";
+    // alterações produzidas por uma escrita, lidas na transacção dela (ver tracked)
+    private static final String SQL_CHANGES_AFTER =
+            "SELECT version, patient_id FROM patient_change WHERE version > ? ORDER BY version";
+    private static final String SQL_PRUNE_CHANGES = "DELETE FROM patient_change WHERE version <= ?";
+
+    private static final String SQL_DELETE_BY_ID = "DELETE FROM patient WHERE id = ?";
+    static final String SQL_DELETE_BY_NOME_DATA = "DELETE FROM patient WHERE nome = ? AND dataNascimento = ? RETURNING id";
+    static final String SQL_ID_BY_NOME_DATA = "SELECT id FROM patient WHERE nome = ? AND dataNascimento = ?";
+
     private final String url;
-    private final Connection conn;
+    private final ConnectionPool pool;
+    private final GroupCommitWriter writer;
 
     public PatientDAO(String dbFile) throws SQLException {
+        this(dbFile, DEFAULT_READERS);
+    }
+
+    public PatientDAO(String dbFile, int readers) throws SQLException {
+        this(dbFile, readers, StorageProfile.defaults());
+    }
+
+    public PatientDAO(String dbFile, int readers, StorageProfile profile) throws SQLException {
         this.url = "jdbc:sqlite:" + dbFile;
-        this.conn = DriverManager.getConnection(url);
-
-        try (Statement st = conn.createStatement()) {
-            st.executeUpdate("""
-                CREATE TABLE IF NOT EXISTS patient (
-                    id               INTEGER PRIMARY KEY AUTOINCREMENT,
-                    nome             TEXT    NOT NULL,
-                    idade            INTEGER,
-                    bi               TEXT,
-                    telefone         TEXT,
-                    endereco         TEXT,
-                    email            TEXT,
-                    genero           TEXT,
-                    dataNascimento   TEXT,   -- ISO yyyy-MM-dd
-                    historicoMedico  TEXT,
-                    planoSaude       TEXT,
-                    UNIQUE(nome, dataNascimento)
-                )
-            """);
+        this.pool = new ConnectionPool(url, readers, profile);
+
+        // esquema definido num só sítio (idempotente se o DbInit já correu)
+        pool.write(c -> SchemaMigrations.migrate(c.raw()));
+        this.writer = new GroupCommitWriter(pool, WRITE_GROUP_MAX, WRITE_GROUP_LINGER_US);
+    }
+
+    /** Resultado de createOrGet/upsert. */
+    public enum UpsertOutcome { CREATED, UPDATED, EXISTED }
+
+    public record UpsertResult(int id, UpsertOutcome outcome) {}
+
+    /** Uma linha do registo de alterações: versão produzida e paciente afectado. */
+    public record Change(long version, int id) {}
+
+    /**
+     * Resultado de uma escrita e o que ela alterou de facto, lido do registo de alterações na
+     * própria transacção (antes de qualquer outra escrita): 'version' é data_version logo a seguir
+     * e 'changes' traz uma entrada por linha alterada. Um UPDATE com os mesmos dados não conta.
+     * complete=false se o registo não explica todo o avanço da versão (ids por resolver).
+     */
+    public record Written<T>(T value, long version, List<Change> changes, boolean complete) {
+        public boolean changed() {
+            return !changes.isEmpty() || !complete;
         }
     }
 
-    /** Adiciona paciente; tenta preencher p.id (novo ou existente se duplicado). */
-    public void addPatient(Patient p) throws SQLException {
-        String sql = "INSERT OR IGNORE INTO patient " +
-                "(nome, idade, bi, telefone, endereco, email, genero, dataNascimento, historicoMedico, planoSaude) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setString(1, p.nome);
-            ps.setInt(2, p.idade);
-            ps.setString(3, p.bi);
-            ps.setString(4, p.telefone);
-            ps.setString(5, p.endereco);
-            ps.setString(6, p.email);
-            ps.setString(7, p.genero);
-            ps.setString(8, p.dataNascimento != null ? p.dataNascimento.toString() : null);
-            ps.setString(9, p.historicoMedico);
-            ps.setString(10, p.planoSaude);
-
-            int n = ps.executeUpdate();
-            if (n > 0) {
-                try (ResultSet rs = ps.getGeneratedKeys()) {
-                    if (rs.next()) p.id = rs.getInt(1);
-                }
-            } else {
-                // Foi ignorado (duplicado pela UNIQUE). Tentar descobrir o id existente.
-                p.id = findIdByNomeDataNascimento(p.nome, p.dataNascimento != null ? p.dataNascimento.toString() : null);
-            }
+    /**
+     * Cria o paciente ou, se já existir (nome + dataNascimento), devolve o existente sem o alterar.
+     * Criado: uma instrução (INSERT ... DO NOTHING RETURNING); existente: mais um SELECT, sem
+     * escrita. Preenche p.id.
+     */
+    public Written<UpsertResult> createOrGet(Patient p) throws SQLException {
+        return tracked(c -> {
+            Integer id = writeReturningId(c, SQL_CREATE, p);
+            if (id != null) return result(p, id, UpsertOutcome.CREATED);
+            return result(p, existingId(c, p), UpsertOutcome.EXISTED);
+        });
+    }
+
+    /**
+     * Cria o paciente ou actualiza os restantes campos do existente com a mesma chave
+     * (nome + dataNascimento). EXISTED quando os dados já eram iguais. Preenche p.id.
+     */
+    public Written<UpsertResult> upsert(Patient p) throws SQLException {
+        return tracked(c -> {
+            Integer id = writeReturningId(c, SQL_CREATE, p);
+            if (id != null) return result(p, id, UpsertOutcome.CREATED);
+            id = writeReturningId(c, SQL_UPDATE_IF_CHANGED, p);
+            if (id != null) return result(p, id, UpsertOutcome.UPDATED);
+            return result(p, existingId(c, p), UpsertOutcome.EXISTED);
+        });
+    }
+
+    /** Escrita com os 10 campos de p e RETURNING id; null se não mexeu em nenhuma linha. */
+    private static Integer writeReturningId(PooledConnection c, String sql, Patient p) throws SQLException {
+        PreparedStatement ps = c.prepare(sql);
+        bindInsert(ps, p);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : null;
         }
     }
 
+    /** Id da linha com a chave de p, que um conflito acabou de confirmar (mesma transacção). */
+    private static int existingId(PooledConnection c, Patient p) throws SQLException {
+        Integer id = findIdByNomeDataNascimento(c, p);
+        if (id == null) throw new SQLException("Conflito sem linha com a mesma chave.");
+        return id;
+    }
+
+    private static UpsertResult result(Patient p, int id, UpsertOutcome outcome) {
+        p.id = id;
+        return new UpsertResult(id, outcome);
+    }
+
+    /** Adiciona paciente e preenche p.id (novo ou existente se duplicado). True se inseriu. */
+    public boolean addPatient(Patient p) throws SQLException {
+        return createOrGet(p).value().outcome() == UpsertOutcome.CREATED;
+    }
+
     /** Atualiza por ID (preferível). Devolve nº de linhas afetadas. */
-    public int updatePatientById(Patient p) throws SQLException {
-        if (p.id == null) return 0;
-        String sql = """
-            UPDATE patient
-            SET nome = ?, idade = ?, bi = ?, telefone = ?, endereco = ?, email = ?,
-                genero = ?, dataNascimento = ?, historicoMedico = ?, planoSaude = ?
-            WHERE id = ?
-        """;
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, p.nome);
-            ps.setInt(2, p.idade);
-            ps.setString(3, p.bi);
-            ps.setString(4, p.telefone);
-            ps.setString(5, p.endereco);
-            ps.setString(6, p.email);
-            ps.setString(7, p.genero);
-            ps.setString(8, p.dataNascimento != null ? p.dataNascimento.toString() : null);
-            ps.setString(9, p.historicoMedico);
-            ps.setString(10, p.planoSaude);
+    public Written<Integer> updatePatientById(Patient p) throws SQLException {
+        if (p.id == null) return new Written<>(0, 0L, List.of(), true);
+        return tracked(c -> {
+            PreparedStatement ps = c.prepare(SQL_UPDATE_BY_ID);
+            bindInsert(ps, p);
             ps.setInt(11, p.id);
             return ps.executeUpdate();
+        });
+    }
+
+    // ===== lotes: um PreparedStatement e executeBatch; atómicos (SAVEPOINT no grupo do escritor) =====
+
+    /**
+     * Insere vários pacientes numa só transacção. Devolve, por item, 1 se foi criado ou 0 se
+     * já existia (UNIQUE nome+dataNascimento); em ambos os casos preenche p.id.
+     * Sem uma consulta por linha: os ids dos criados vêm do registo de alterações que tracked()
+     * já lê (um INSERT = uma alteração, pela ordem do lote); só os que já existiam são procurados.
+     */
+    public Written<int[]> addPatients(List<Patient> list) throws SQLException {
+        if (list.isEmpty()) return new Written<>(new int[0], 0L, List.of(), true);
+        Written<int[]> w = tracked(c -> {
+            PreparedStatement ps = c.prepare(SQL_INSERT);
+            int[] counts;
+            try {
+                for (Patient p : list) {
+                    bindInsert(ps, p);
+                    ps.addBatch();
+                }
+                counts = ps.executeBatch();
+            } finally {
+                ps.clearBatch(); // statement em cache: nunca deixar um lote parcial
+            }
+            // getGeneratedKeys não é fiável em lote; os existentes pela chave, ainda dentro da transacção
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) list.get(i).id = findIdByNomeDataNascimento(c, list.get(i));
+            }
+            return counts;
+        });
+        int[] counts = w.value();
+        int inserted = 0;
+        for (int n : counts) inserted += n;
+        if (w.complete() && w.changes().size() == inserted) {
+            int next = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 1) list.get(i).id = w.changes().get(next++).id();
+            }
+        } else {
+            // não devia acontecer (os triggers registam cada INSERT): procura pela chave
+            pool.read(c -> {
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 1) list.get(i).id = findIdByNomeDataNascimento(c, list.get(i));
+                }
+                return null;
+            });
         }
+        return w;
     }
 
-    /** Mantido para compatibilidade: atualização por (nome + dataNascimento). */
-    public int updatePatient(Patient p) throws SQLException {
-        String sql = """
-            UPDATE patient
-            SET idade = ?, bi = ?, telefone = ?, endereco = ?, email = ?,
-                genero = ?, historicoMedico = ?, planoSaude = ?
-            WHERE nome = ? AND dataNascimento = ?
-        """;
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+    /** Actualiza vários pacientes por id numa só transacção. Devolve o nº de linhas afectadas por item. */
+    public Written<int[]> updatePatientsById(List<Patient> list) throws SQLException {
+        if (list.isEmpty()) return new Written<>(new int[0], 0L, List.of(), true);
+        return tracked(c -> {
+            PreparedStatement ps = c.prepare(SQL_UPDATE_BY_ID);
+            try {
+                for (Patient p : list) {
+                    bindInsert(ps, p);
+                    ps.setInt(11, p.id);
+                    ps.addBatch();
+                }
+                return ps.executeBatch();
+            } finally {
+                ps.clearBatch();
+            }
+        });
+    }
+
+    /** Remove vários pacientes por id numa só transacção. Devolve o nº de linhas removidas por item. */
+    public Written<int[]> deleteByIds(List<Integer> ids) throws SQLException {
+        if (ids.isEmpty()) return new Written<>(new int[0], 0L, List.of(), true);
+        return tracked(c -> {
+            PreparedStatement ps = c.prepare(SQL_DELETE_BY_ID);
+            try {
+                for (int id : ids) {
+                    ps.setInt(1, id);
+                    ps.addBatch();
+                }
+                return ps.executeBatch();
+            } finally {
+                ps.clearBatch();
+            }
+        });
+    }
+
+    /** Mantido para compatibilidade: atualização por (nome + dataNascimento). Devolve os ids afectados. */
+    public Written<List<Integer>> updatePatient(Patient p) throws SQLException {
+        return tracked(c -> {
+            PreparedStatement ps = c.prepare(SQL_UPDATE_BY_NOME_DATA);
             ps.setInt(1, p.idade);
             ps.setString(2, p.bi);
             ps.setString(3, p.telefone);
@@ -109,70 +305,307 @@ public class PatientDAO {
             ps.setString(8, p.planoSaude);
             ps.setString(9, p.nome);
             ps.setString(10, (p.dataNascimento != null) ? p.dataNascimento.toString() : null);
-            return ps.executeUpdate();
-        }
+            return returnedIds(ps);
+        });
     }
 
     /** Lista todos (inclui id). */
     public List<Patient> getAllPatients() throws SQLException {
-        List<Patient> list = new ArrayList<>();
-        String sql = "SELECT id, nome, idade, bi, telefone, endereco, email, genero, dataNascimento, historicoMedico, planoSaude " +
-                     "FROM patient ORDER BY nome";
-        try (Statement st = conn.createStatement();
-             ResultSet rs = st.executeQuery(sql)) {
-            while (rs.next()) {
-                Patient p = new Patient(
-                        rs.getInt("id"),
-                        rs.getString("nome"),
-                        rs.getInt("idade"),
-                        rs.getString("bi"),
-                        rs.getString("telefone"),
-                        rs.getString("endereco"),
-                        rs.getString("email"),
-                        rs.getString("genero"),
-                        rs.getString("dataNascimento") != null ? LocalDate.parse(rs.getString("dataNascimento")) : null,
-                        rs.getString("historicoMedico"),
-                        rs.getString("planoSaude")
-                );
-                list.add(p);
+        return pool.read(c -> {
+            List<Patient> list = new ArrayList<>();
+            try (ResultSet rs = c.prepare(SQL_SELECT_ALL).executeQuery()) {
+                while (rs.next()) {
+                    list.add(mapRow(rs));
+                }
             }
+            return list;
+        });
+    }
+
+    /**
+     * Percorre todos os pacientes (ORDER BY nome) sem os acumular em memória.
+     * A ligação de leitura fica ocupada enquanto o 'sink' consome as linhas.
+     * Devolve o nº de linhas entregues.
+     */
+    public int streamAllPatients(RowSink<Patient> sink) throws SQLException, IOException {
+        try {
+            return pool.read(c -> {
+                int n = 0;
+                try (ResultSet rs = c.prepare(SQL_SELECT_ALL).executeQuery()) {
+                    while (rs.next()) {
+                        sink.accept(mapRow(rs));
+                        n++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return n;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return list;
     }
 
-    /** Remover por ID (preferível). */
-    public int deleteById(int id) throws SQLException {
-        String sql = "DELETE FROM patient WHERE id = ?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+    /**
+     * Página ordenada por (nome, id), a começar depois do cursor (afterNome, afterId).
+     * Cursor nulo = primeira página.
+     */
+    public List<Patient> getPatientsPage(String afterNome, Integer afterId, int limit) throws SQLException {
+        return pool.read(c -> {
+            PreparedStatement ps;
+            if (afterNome == null || afterId == null) {
+                ps = c.prepare(SQL_PAGE_FIRST);
+                ps.setInt(1, limit);
+            } else {
+                ps = c.prepare(SQL_PAGE_AFTER);
+                ps.setString(1, afterNome);
+                ps.setInt(2, afterId);
+                ps.setInt(3, limit);
+            }
+            List<Patient> list = new ArrayList<>(Math.min(limit, 1024));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(mapRow(rs));
+                }
+            }
+            return list;
+        });
+    }
+
+    /** Resumos ordenados por (nome, id) a seguir ao cursor; limit < 0 = todos. */
+    public List<PatientSummary> getSummariesPage(String afterNome, Integer afterId, int limit) throws SQLException {
+        return pool.read(c -> {
+            PreparedStatement ps;
+            if (afterNome == null || afterId == null) {
+                ps = c.prepare(SQL_SUMMARY_FIRST);
+                ps.setInt(1, limit);
+            } else {
+                ps = c.prepare(SQL_SUMMARY_AFTER);
+                ps.setString(1, afterNome);
+                ps.setInt(2, afterId);
+                ps.setInt(3, limit);
+            }
+            List<PatientSummary> list = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(mapSummary(rs));
+                }
+            }
+            return list;
+        });
+    }
+
+    /** Registo completo por id (null se não existir). */
+    public Patient getById(int id) throws SQLException {
+        return pool.read(c -> {
+            PreparedStatement ps = c.prepare(SQL_BY_ID);
             ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? mapRow(rs) : null;
+            }
+        });
+    }
+
+    /** Versão actual dos dados (incrementada por trigger em cada INSERT/UPDATE/DELETE). */
+    public long dataVersion() throws SQLException {
+        return pool.read(PatientDAO::dataVersion);
+    }
+
+    /** Lista completa e a versão a que corresponde, lidas na mesma transacção (snapshot WAL). */
+    public Versioned<List<Patient>> getAllPatientsVersioned() throws SQLException {
+        return pool.read(c -> {
+            Connection raw = c.raw();
+            raw.setAutoCommit(false);
+            try {
+                long v = dataVersion(c);
+                List<Patient> list = new ArrayList<>();
+                try (ResultSet rs = c.prepare(SQL_SELECT_ALL).executeQuery()) {
+                    while (rs.next()) {
+                        list.add(mapRow(rs));
+                    }
+                }
+                return new Versioned<>(v, list);
+            } finally {
+                raw.rollback(); // só leitura: termina a transacção
+                raw.setAutoCommit(true);
+            }
+        });
+    }
+
+    /**
+     * Alterações depois de 'since': resumos dos pacientes criados/alterados e ids removidos.
+     * resync=true quando o registo já não cobre 'since' (podado) ou há mais de maxIds alterados.
+     */
+    public record ChangeSet(long version, boolean resync, List<PatientSummary> upserts, List<Integer> deletedIds) {}
+
+    public ChangeSet changesSince(long since, int maxIds) throws SQLException {
+        return pool.read(c -> {
+            Connection raw = c.raw();
+            raw.setAutoCommit(false);
+            try {
+                long v = dataVersion(c);
+                if (since == v) return new ChangeSet(v, false, List.of(), List.of());
+
+                long min;
+                try (ResultSet rs = c.prepare(SQL_MIN_CHANGE).executeQuery()) {
+                    min = (rs.next() && rs.getObject(1) != null) ? rs.getLong(1) : Long.MAX_VALUE;
+                }
+                // since > v: BD reposta/trocada; since + 1 < min: alterações já podadas
+                if (since > v || since + 1 < min) return new ChangeSet(v, true, List.of(), List.of());
+
+                List<PatientSummary> upserts = new ArrayList<>();
+                List<Integer> deleted = new ArrayList<>();
+                PreparedStatement ps = c.prepare(SQL_CHANGES_SINCE);
+                ps.setLong(1, since);
+                ps.setInt(2, maxIds + 1);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (rs.getObject("id") == null) deleted.add(rs.getInt("patient_id"));
+                        else upserts.add(mapSummary(rs));
+                    }
+                }
+                if (upserts.size() + deleted.size() > maxIds) return new ChangeSet(v, true, List.of(), List.of());
+                return new ChangeSet(v, false, upserts, deleted);
+            } finally {
+                raw.rollback(); // só leitura: termina a transacção
+                raw.setAutoCommit(true);
+            }
+        });
+    }
+
+    /**
+     * Remove do registo de alterações tudo o que não esteja entre as últimas 'keep' versões.
+     * Vai para o escritor (group commit) sem esperar: o future completa com o nº de linhas removidas.
+     */
+    public CompletableFuture<Integer> pruneChanges(long keep) throws SQLException {
+        return writer.submit(c -> {
+            PreparedStatement ps = c.prepare(SQL_PRUNE_CHANGES);
+            ps.setLong(1, dataVersion(c) - keep);
             return ps.executeUpdate();
+        });
+    }
+
+    private static long dataVersion(PooledConnection c) throws SQLException {
+        try (ResultSet rs = c.prepare(SQL_DATA_VERSION).executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0L;
         }
     }
 
-    /** Compatibilidade: remover por (nome + dataNascimento). */
-    public int deleteByNomeDataNascimento(String nome, String dataIso) throws SQLException {
-        String sql = "DELETE FROM patient WHERE nome = ? AND dataNascimento = ?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, nome);
-            ps.setString(2, dataIso);
+    /** Remover por ID (preferível). */
+    public Written<Integer> deleteById(int id) throws SQLException {
+        return tracked(c -> {
+            PreparedStatement ps = c.prepare(SQL_DELETE_BY_ID);
+            ps.setInt(1, id);
             return ps.executeUpdate();
-        }
+        });
     }
 
-    /** Obtém id pela chave antiga (nome + dataNascimento). */
-    private Integer findIdByNomeDataNascimento(String nome, String dataIso) throws SQLException {
-        String sql = "SELECT id FROM patient WHERE nome = ? AND dataNascimento = ?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+    /** Compatibilidade: remover por (nome + dataNascimento). Devolve os ids removidos. */
+    public Written<List<Integer>> deleteByNomeDataNascimento(String nome, String dataIso) throws SQLException {
+        return tracked(c -> {
+            PreparedStatement ps = c.prepare(SQL_DELETE_BY_NOME_DATA);
             ps.setString(1, nome);
             ps.setString(2, dataIso);
+            return returnedIds(ps);
+        });
+    }
+
+    /**
+     * Aplica 'work' no escritor e junta-lhe o que mudou: a versão antes e depois e as linhas
+     * novas do registo de alterações, tudo na mesma transacção e sem outra escrita pelo meio.
+     */
+    private <T> Written<T> tracked(SqlWork<T> work) throws SQLException {
+        return writer.execute(c -> {
+            long before = dataVersion(c);
+            T value = work.run(c);
+            long after = dataVersion(c);
+            if (after == before) return new Written<>(value, after, List.of(), true);
+            List<Change> changes = new ArrayList<>((int) Math.min(after - before, 1024));
+            PreparedStatement ps = c.prepare(SQL_CHANGES_AFTER);
+            ps.setLong(1, before);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return rs.getInt("id");
+                while (rs.next()) changes.add(new Change(rs.getLong(1), rs.getInt(2)));
             }
+            return new Written<>(value, after, changes, changes.size() == after - before);
+        });
+    }
+
+    /** Executa uma escrita com RETURNING id e junta os ids das linhas afectadas. */
+    private static List<Integer> returnedIds(PreparedStatement ps) throws SQLException {
+        List<Integer> ids = new ArrayList<>(1);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) ids.add(rs.getInt(1));
+        }
+        return ids;
+    }
+
+    /** Obtém o id pela chave (nome + dataNascimento) de p, na ligação já emprestada. */
+    private static Integer findIdByNomeDataNascimento(PooledConnection c, Patient p) throws SQLException {
+        PreparedStatement ps = c.prepare(SQL_ID_BY_NOME_DATA);
+        ps.setString(1, p.nome);
+        ps.setString(2, p.dataNascimento != null ? p.dataNascimento.toString() : null);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) return rs.getInt("id");
         }
         return null;
     }
 
+    /** Os 10 campos do paciente, pela ordem de SQL_INSERT / SQL_CREATE / SQL_UPDATE_BY_ID (parâmetros 1..10). */
+    private static void bindInsert(PreparedStatement ps, Patient p) throws SQLException {
+        ps.setString(1, p.nome);
+        ps.setInt(2, p.idade);
+        ps.setString(3, p.bi);
+        ps.setString(4, p.telefone);
+        ps.setString(5, p.endereco);
+        ps.setString(6, p.email);
+        ps.setString(7, p.genero);
+        ps.setString(8, p.dataNascimento != null ? p.dataNascimento.toString() : null);
+        ps.setString(9, p.historicoMedico);
+        ps.setString(10, p.planoSaude);
+    }
+
+    private static Patient mapRow(ResultSet rs) throws SQLException {
+        String data = rs.getString("dataNascimento");
+        return new Patient(
+                rs.getInt("id"),
+                rs.getString("nome"),
+                rs.getInt("idade"),
+                rs.getString("bi"),
+                rs.getString("telefone"),
+                rs.getString("endereco"),
+                rs.getString("email"),
+                rs.getString("genero"),
+                data != null ? LocalDate.parse(data) : null,
+                rs.getString("historicoMedico"),
+                rs.getString("planoSaude")
+        );
+    }
+
+    private static PatientSummary mapSummary(ResultSet rs) throws SQLException {
+        String data = rs.getString("dataNascimento");
+        return new PatientSummary(
+                rs.getInt("id"),
+                rs.getString("nome"),
+                rs.getInt("idade"),
+                rs.getString("bi"),
+                rs.getString("telefone"),
+                rs.getString("email"),
+                rs.getString("planoSaude"),
+                data != null ? LocalDate.parse(data) : null);
+    }
+
+    /** Métricas do pool de ligações (espera, activas, livres). */
+    public ConnectionPool.Stats poolStats() {
+        return pool.stats();
+    }
+
+    /** Métricas do group commit (grupos, tamanho médio/máximo, falhas). */
+    public String writerStats() {
+        return writer.toString();
+    }
+
     public void close() throws SQLException {
-        if (conn != null && !conn.isClosed()) conn.close();
+        writer.close();
+        pool.close();
     }
 }
@@ -0,0 +1,139 @@
+package server.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Único sítio onde o esquema da BD é definido.
+ * Cada migração tem uma versão; a tabela schema_version regista as já aplicadas.
+ * Idempotente: pode ser chamada em cada arranque (e por várias ligações).
+ */
+public final class SchemaMigrations {
+
+    private SchemaMigrations() {}
+
+    private record Migration(int version, String description, List<String> statements) {}
+
+    private static final List<Migration> MIGRATIONS = List.of(
+        new Migration(1, "tabela patient", List.of("""
+            CREATE TABLE IF NOT EXISTS patient (
+                id               INTEGER PRIMARY KEY AUTOINCREMENT,
+                nome             TEXT    NOT NULL,
+                idade            INTEGER,
+                bi               TEXT,
+                telefone         TEXT,
+                endereco         TEXT,
+                email            TEXT,
+                genero           TEXT,
+                dataNascimento   TEXT,   -- ISO yyyy-MM-dd
+                historicoMedico  TEXT,
+                planoSaude       TEXT,
+                UNIQUE(nome, dataNascimento)
+            )
+        """)),
+        // Só índices que alguma consulta usa (SchemaMigrationsTest verifica os planos):
+        // (nome, dataNascimento) já tem o da UNIQUE; (nome, rowid) serve a paginação keyset ORDER BY nome, id
+        new Migration(2, "índice para paginação por nome", List.of(
+            "CREATE INDEX IF NOT EXISTS idx_patient_nome ON patient(nome)"
+        )),
+        // versão monotónica dos dados, mantida por triggers na mesma transacção da escrita
+        new Migration(3, "versão dos dados", List.of(
+            "CREATE TABLE IF NOT EXISTS data_version (id INTEGER PRIMARY KEY CHECK (id = 1), version INTEGER NOT NULL)",
+            "INSERT OR IGNORE INTO data_version (id, version) VALUES (1, 0)",
+            "CREATE TRIGGER IF NOT EXISTS trg_patient_ins_version AFTER INSERT ON patient " +
+                "BEGIN UPDATE data_version SET version = version + 1 WHERE id = 1; END",
+            "CREATE TRIGGER IF NOT EXISTS trg_patient_upd_version AFTER UPDATE ON patient " +
+                "BEGIN UPDATE data_version SET version = version + 1 WHERE id = 1; END",
+            "CREATE TRIGGER IF NOT EXISTS trg_patient_del_version AFTER DELETE ON patient " +
+                "BEGIN UPDATE data_version SET version = version + 1 WHERE id = 1; END"
+        )),
+        // registo de alterações (versão -> id do paciente) para sincronização incremental;
+        // os triggers passam a incrementar a versão e a registar o id na mesma transacção
+        new Migration(4, "registo de alterações", List.of(
+            "CREATE TABLE IF NOT EXISTS patient_change (version INTEGER PRIMARY KEY, patient_id INTEGER NOT NULL)",
+            "DROP TRIGGER IF EXISTS trg_patient_ins_version",
+            "DROP TRIGGER IF EXISTS trg_patient_upd_version",
+            "DROP TRIGGER IF EXISTS trg_patient_del_version",
+            "CREATE TRIGGER trg_patient_ins_change AFTER INSERT ON patient BEGIN " +
+                "UPDATE data_version SET version = version + 1 WHERE id = 1; " +
+                "INSERT INTO patient_change (version, patient_id) SELECT version, NEW.id FROM data_version WHERE id = 1; END",
+            "CREATE TRIGGER trg_patient_upd_change AFTER UPDATE ON patient BEGIN " +
+                "UPDATE data_version SET version = version + 1 WHERE id = 1; " +
+                "INSERT INTO patient_change (version, patient_id) SELECT version, NEW.id FROM data_version WHERE id = 1; END",
+            "CREATE TRIGGER trg_patient_del_change AFTER DELETE ON patient BEGIN " +
+                "UPDATE data_version SET version = version + 1 WHERE id = 1; " +
+                "INSERT INTO patient_change (version, patient_id) SELECT version, OLD.id FROM data_version WHERE id = 1; END"
+        )),
+        // UPDATEs que não mudam dados deixam de contar como alteração (sem versão nova nem evento)
+        new Migration(5, "alterações só com dados diferentes", List.of(
+            "DROP TRIGGER IF EXISTS trg_patient_upd_change",
+            "CREATE TRIGGER trg_patient_upd_change AFTER UPDATE ON patient " +
+                "WHEN (OLD.nome, OLD.idade, OLD.bi, OLD.telefone, OLD.endereco, OLD.email, OLD.genero, " +
+                "OLD.dataNascimento, OLD.historicoMedico, OLD.planoSaude) IS NOT " +
+                "(NEW.nome, NEW.idade, NEW.bi, NEW.telefone, NEW.endereco, NEW.email, NEW.genero, " +
+                "NEW.dataNascimento, NEW.historicoMedico, NEW.planoSaude) BEGIN " +
+                "UPDATE data_version SET version = version + 1 WHERE id = 1; " +
+                "INSERT INTO patient_change (version, patient_id) SELECT version, NEW.id FROM data_version WHERE id = 1; END"
+        ))
+    );
+
+    /** Aplica as migrações em falta; devolve a versão final do esquema. */
+    public static int migrate(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS schema_version (
+                    version      INTEGER PRIMARY KEY,
+                    description  TEXT,
+                    applied_at   TEXT NOT NULL
+                )
+            """);
+        }
+
+        int current = currentVersion(c);
+        for (Migration m : MIGRATIONS) {
+            if (m.version() <= current) continue;
+            if (apply(c, m)) current = m.version();
+        }
+        return current;
+    }
+
+    public static int currentVersion(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /** Aplica uma migração numa transacção; revalida a versão caso outra ligação já a tenha aplicado. */
+    private static boolean apply(Connection c, Migration m) throws SQLException {
+        boolean auto = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try (Statement st = c.createStatement()) {
+            // revalida dentro da transacção
+            if (currentVersion(c) >= m.version()) {
+                c.rollback();
+                return false;
+            }
+            for (String sql : m.statements()) st.executeUpdate(sql);
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, ?)")) {
+                ps.setInt(1, m.version());
+                ps.setString(2, m.description());
+                ps.setString(3, Instant.now().toString());
+                ps.executeUpdate();
+            }
+            c.commit();
+            return true;
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(auto);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package server.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Perfil de armazenamento SQLite (PRAGMAs) aplicado no arranque.
+ * - journal_mode é persistente no ficheiro (aplicado uma vez pelo DbInit)
+ * - os restantes valem por ligação (aplicados a cada ligação do pool)
+ * Por defeito: WAL + synchronous=NORMAL, para leituras não ficarem bloqueadas pela escrita.
+ */
+public record StorageProfile(String journalMode, String synchronous, long mmapSizeBytes,
+                             int cacheSizeKb, String tempStore, int busyTimeoutMs) {
+
+    private static final Set<String> JOURNAL_MODES = Set.of("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+    private static final Set<String> SYNC_MODES = Set.of("OFF", "NORMAL", "FULL", "EXTRA");
+    private static final Set<String> TEMP_STORES = Set.of("DEFAULT", "FILE", "MEMORY");
+
+    public StorageProfile {
+        journalMode = checked("journal_mode", journalMode, JOURNAL_MODES);
+        synchronous = checked("synchronous", synchronous, SYNC_MODES);
+        tempStore = checked("temp_store", tempStore, TEMP_STORES);
+        if (mmapSizeBytes < 0 || cacheSizeKb < 0 || busyTimeoutMs < 0)
+            throw new IllegalArgumentException("Valores de storage profile não podem ser negativos.");
+    }
+
+    /** WAL, synchronous=NORMAL, 256 MiB mmap, 64 MiB cache, temporários em memória, 5 s de busy timeout. */
+    public static StorageProfile defaults() {
+        return new StorageProfile("WAL", "NORMAL", 256L * 1024 * 1024, 64 * 1024, "MEMORY", 5_000);
+    }
+
+    /** Aplica o modo de journal (persistente); devolve o modo efectivo reportado pelo SQLite. */
+    public String applyJournalMode(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             var rs = st.executeQuery("PRAGMA journal_mode = " + journalMode)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    /** Aplica os PRAGMAs por ligação. */
+    public void applyToConnection(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("PRAGMA busy_timeout = " + busyTimeoutMs);
+            st.execute("PRAGMA synchronous = " + synchronous);
+            st.execute("PRAGMA mmap_size = " + mmapSizeBytes);
+            st.execute("PRAGMA cache_size = -" + cacheSizeKb); // negativo = KiB
+            st.execute("PRAGMA temp_store = " + tempStore);
+        }
+    }
+
+    private static String checked(String name, String value, Set<String> allowed) {
+        String v = (value == null ? "" : value.trim().toUpperCase(Locale.ROOT));
+        if (!allowed.contains(v))
+            throw new IllegalArgumentException("Valor inválido para " + name + ": " + value + " (aceites: " + allowed + ")");
+        return v;
+    }
+}
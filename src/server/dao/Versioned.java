@@ -0,0 +1,4 @@
+package server.dao;
+
+/** Valor lido da BD juntamente com a versão dos dados (data_version) no mesmo instante. */
+public record Versioned<T>(long version, T value) {}
@@ -2,8 +2,11 @@ package server.handler;
 
 import common.dto.Request;
 import common.dto.Response;
+import common.protocol.FrameSink;
 import server.service.PatientService;
 
+import java.io.IOException;
+
 public class PatientHandler {
 
     private final PatientService service;
@@ -16,4 +19,21 @@ public class PatientHandler {
         // delega para o service, que já sabe tratar cada ação
         return service.handle(req);
     }
+
+    private static boolean isFullList(Request req) {
+        return ("LIST_PATIENTS".equals(req.action) || "listPatients".equals(req.action)) && req.limit == null;
+    }
+
+    /** Escreve a resposta em 'out': um frame, ou vários para acções em streaming. */
+    public void handle(Request req, FrameSink out) throws IOException {
+        if ("STREAM_PATIENTS".equals(req.action)) {
+            service.streamPatients(out);
+            return;
+        }
+        if (isFullList(req)) {
+            service.listPatients(req, out);
+            return;
+        }
+        out.send(handle(req));
+    }
 }
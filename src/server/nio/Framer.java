@@ -0,0 +1,15 @@
+package server.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Enquadramento dos bytes recebidos numa ligação NIO (um por ligação, usado só pelo event loop).
+ * Entrega o conteúdo de cada frame completo, sem o delimitador/comprimento.
+ */
+interface Framer {
+
+    /** Consome todos os bytes disponíveis em 'in' e chama 'onFrame' por cada frame completo. */
+    void feed(ByteBuffer in, Consumer<byte[]> onFrame) throws IOException;
+}
@@ -0,0 +1,137 @@
+package server.nio;
+
+import server.RequestDispatcher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Event loop NIO: um Selector e uma thread servem muitas ligações.
+ * Outras threads (acceptor, workers) só comunicam com o loop via execute().
+ */
+final class IoLoop implements Runnable {
+
+    private static final long SELECT_TIMEOUT_MS = 1000;
+
+    private final Selector selector;
+    private final RequestDispatcher dispatcher;
+    private final ExecutorService workers;
+    private final long idleTimeoutMs;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer scratch = ByteBuffer.allocateDirect(16 * 1024);
+
+    private volatile boolean running = true;
+
+    IoLoop(RequestDispatcher dispatcher, ExecutorService workers, long idleTimeoutMs) throws IOException {
+        this.selector = Selector.open();
+        this.dispatcher = dispatcher;
+        this.workers = workers;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /** Agenda uma tarefa para correr na thread do loop (thread-safe). */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /** Entrega uma ligação aceite ao loop (chamado pelo acceptor). */
+    void register(SocketChannel ch) {
+        execute(() -> {
+            String ip = "-";
+            try {
+                ch.configureBlocking(false);
+                ip = ch.socket().getInetAddress().getHostAddress();
+                NioConnection conn = new NioConnection(ch, ip, this, dispatcher, workers);
+                conn.attach(ch.register(selector, SelectionKey.OP_READ, conn));
+                NioConnection.log("conn_open", ip, "-", "-", "Ligação iniciada");
+            } catch (IOException e) {
+                NioConnection.log("conn_error", ip, "-", "-", "Falha a registar ligação: " + e.getMessage());
+                try { ch.close(); } catch (IOException ignore) {}
+            }
+        });
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MS);
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= SELECT_TIMEOUT_MS) {
+                    closeIdle(now);
+                    lastSweep = now;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            NioConnection.log("conn_error", "-", "-", "-", "Event loop terminou: " + e.getMessage());
+        } finally {
+            for (SelectionKey k : selector.keys()) {
+                if (k.attachment() instanceof NioConnection c) c.close();
+            }
+            try { selector.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    private void runTasks() {
+        Runnable t;
+        while ((t = tasks.poll()) != null) {
+            try {
+                t.run();
+            } catch (RuntimeException e) {
+                NioConnection.log("conn_error", "-", "-", "-", "Tarefa do event loop falhou: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        NioConnection conn = (NioConnection) key.attachment();
+        try {
+            if (key.isValid() && key.isReadable()) {
+                if (!conn.onReadable(scratch)) {
+                    NioConnection.log("conn_close", conn.ip, "-", "-", "Cliente fechou a ligação");
+                    conn.close();
+                    return;
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                conn.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            NioConnection.log("conn_error", conn.ip, "-", "-", "Erro na ligação: " + e.getMessage());
+            conn.close();
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey k : selector.keys()) {
+            if (k.attachment() instanceof NioConnection c && c.isIdle(now, idleTimeoutMs)) {
+                NioConnection.log("conn_timeout", c.ip, "-", "-", "Timeout de leitura; a fechar ligação");
+                c.close();
+            }
+        }
+    }
+}
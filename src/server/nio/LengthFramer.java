@@ -0,0 +1,59 @@
+package server.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Enquadramento por comprimento (formatos binário e com compressão): cabeçalho varint
+ * seguido do conteúdo, copiado directamente para um array do tamanho exacto do frame.
+ * Com compressão o cabeçalho é (comprimento << 2 | flags) e o conteúdo entregue leva as
+ * flags à cabeça (ver Wire.decode); a descompressão fica para o worker.
+ */
+final class LengthFramer implements Framer {
+
+    private final int maxFrameBytes;
+    private final boolean flagged;
+    private int header;      // cabeçalho em leitura (varint parcial)
+    private int shift;
+    private byte[] content;  // != null: a ler o conteúdo
+    private int filled;
+
+    LengthFramer(int maxFrameBytes, boolean flagged) {
+        this.maxFrameBytes = maxFrameBytes;
+        this.flagged = flagged;
+    }
+
+    @Override
+    public void feed(ByteBuffer in, Consumer<byte[]> onFrame) throws IOException {
+        while (in.hasRemaining()) {
+            if (content == null) {
+                byte b = in.get();
+                if (shift > 28) throw new IOException("comprimento de frame inválido");
+                header |= (b & 0x7F) << shift;
+                shift += 7;
+                if (b < 0) continue; // varint continua
+                int length = flagged ? header >>> 2 : header;
+                if (length < 0 || length > maxFrameBytes) throw new IOException("frame excede " + maxFrameBytes + " bytes");
+                if (flagged) {
+                    content = new byte[length + 1];
+                    content[0] = (byte) (header & 3);
+                    filled = 1;
+                } else {
+                    content = new byte[length];
+                    filled = 0;
+                }
+                header = 0;
+                shift = 0;
+            }
+            int n = Math.min(in.remaining(), content.length - filled);
+            in.get(content, filled, n);
+            filled += n;
+            if (filled == content.length) {
+                byte[] frame = content;
+                content = null;
+                onFrame.accept(frame);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package server.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Enquadramento LineJson sobre ByteBuffers: acumula bytes recebidos e
+ * entrega cada linha completa (terminada em '\n', '\r' opcional), sem o terminador.
+ * Não é thread-safe: cada ligação tem o seu framer, usado só pelo event loop.
+ */
+final class LineFramer implements Framer {
+
+    private final int maxLineBytes;
+    private byte[] buf = new byte[1024];
+    private int len;
+
+    LineFramer(int maxLineBytes) {
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    @Override
+    public void feed(ByteBuffer in, Consumer<byte[]> onLine) throws IOException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                int end = (len > 0 && buf[len - 1] == '\r') ? len - 1 : len;
+                byte[] line = Arrays.copyOf(buf, end);
+                len = 0;
+                if (buf.length > 64 * 1024) buf = new byte[1024]; // não reter buffers gigantes
+                onLine.accept(line);
+                continue;
+            }
+            if (len == buf.length) {
+                if (len >= maxLineBytes) throw new IOException("linha excede " + maxLineBytes + " bytes");
+                buf = Arrays.copyOf(buf, Math.min(maxLineBytes, len * 2));
+            }
+            buf[len++] = b;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package server.nio;
+
+import common.dto.ChangeEvent;
+import common.dto.Request;
+import common.dto.Response;
+import common.protocol.FrameSink;
+import common.protocol.Wire;
+import server.ConnectionContext;
+import server.RequestDispatcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Estado de uma ligação no front-end NIO.
+ * - Leitura/escrita no socket só acontecem no event loop dono da ligação
+ * - O 1.º byte recebido escolhe o formato da ligação (LineJson ou binário, ver Wire)
+ * - Requests sem requestId são processados um de cada vez (respostas pela ordem de chegada)
+ * - Requests com requestId (pipelining) correm em paralelo, até MAX_IN_FLIGHT por ligação
+ * - O pool de negócio só produz bytes para a fila de saída e acorda o loop; nunca espera pelo socket
+ * - Fila de saída acima de HIGH_WATER: a ligação fica estacionada até descer a LOW_WATER (não é lida
+ *   e os pedidos já lidos esperam, sem ocupar workers); acima de MAX_QUEUED_BYTES é fechada
+ * - Sem leituras nem escritas durante o timeout de inactividade, a ligação é fechada mesmo com
+ *   saída por escrever (cliente parado)
+ * - Notificações (SUBSCRIBE) nunca bloqueiam: com um request em curso ficam em espera
+ *   até ao fim da resposta; com a ligação congestionada são recusadas e a subscrição volta a
+ *   tentar quando a fila de saída desce a LOW_WATER
+ */
+final class NioConnection {
+
+    /** Linhas em espera enquanto há um request em curso; acima disto deixamos de ler do socket. */
+    private static final int MAX_PENDING_LINES = 32;
+    /** Requests com requestId em execução em simultâneo na mesma ligação. */
+    private static final int MAX_IN_FLIGHT = 16;
+
+    /** Frames pequenos são agrupados até este tamanho antes de irem para a fila de saída. */
+    private static final int CHUNK_BYTES = 16 * 1024;
+    /** Acima disto a ligação deixa de ser lida até o loop escoar a fila até LOW_WATER. */
+    private static final long HIGH_WATER_BYTES = 256 * 1024;
+    private static final long LOW_WATER_BYTES = 64 * 1024;
+    /**
+     * Limite duro da fila de saída: acima disto a ligação é fechada. Cabe uma resposta de vários
+     * frames máximos; um STREAM_PATIENTS maior do que isto a um cliente lento é cortado.
+     */
+    private static final long MAX_QUEUED_BYTES = 4L * Wire.MAX_FRAME_BYTES;
+
+    /** Motivos para não ler do socket (interest sem OP_READ enquanto algum estiver activo). */
+    private static final int PAUSE_PENDING = 1;
+    private static final int PAUSE_OUTPUT = 2;
+    /** Lotes de notificações em espera durante um request; acima disto são recusados. */
+    private static final int MAX_PARKED_PUSHES = 16;
+
+    final SocketChannel channel;
+    final String ip;
+    private final IoLoop loop;
+    private final RequestDispatcher dispatcher;
+    private final ExecutorService workers;
+    private final ConnectionContext context;
+
+    private Framer framer;           // null até ao 1.º byte (só o event loop)
+    private boolean skipNewline;     // '\n' do preâmbulo ainda por consumir
+    private volatile Wire wire = Wire.JSON;
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final Object drained = new Object();
+    private long queuedBytes; // protegido por 'drained'
+    private boolean pushRefused; // protegido por 'drained': avisar a subscrição quando escoar
+    private boolean outputPaused; // protegido por 'drained': leitura parada por PAUSE_OUTPUT
+
+    // protegidos por 'this' (event loop + workers)
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    private boolean busy;            // uma linha a ser descodificada/processada por ordem
+    private int inFlight;            // requests com requestId em execução
+    private boolean waitingSlot;     // próxima linha à espera que termine um request em paralelo
+    private boolean pendingPaused;   // leitura parada por PAUSE_PENDING
+    private boolean waitingDrain;    // próxima linha à espera que a fila de saída escoe
+    private final ArrayDeque<byte[]> parkedPushes = new ArrayDeque<>();
+
+    private SelectionKey key;
+    private int readPause;           // motivos PAUSE_* activos (só o event loop)
+    private volatile boolean closed;
+    long lastActivityMs = System.currentTimeMillis();
+
+    NioConnection(SocketChannel channel, String ip, IoLoop loop, RequestDispatcher dispatcher, ExecutorService workers) {
+        this.channel = channel;
+        this.ip = ip;
+        this.loop = loop;
+        this.dispatcher = dispatcher;
+        this.workers = workers;
+        this.context = new ConnectionContext(ip, this::push);
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    // ===== event loop =====
+
+    /** Chamado pelo loop quando há dados para ler. Devolve false se a ligação foi fechada pelo cliente. */
+    boolean onReadable(ByteBuffer scratch) throws IOException {
+        scratch.clear();
+        int n = channel.read(scratch);
+        if (n < 0) return false;
+        lastActivityMs = System.currentTimeMillis();
+        scratch.flip();
+        if (framer == null) {
+            if (!scratch.hasRemaining()) return true;
+            chooseWire(scratch);
+        }
+        if (skipNewline && scratch.hasRemaining()) {
+            if (scratch.get(scratch.position()) == '\n') scratch.get();
+            skipNewline = false;
+        }
+        framer.feed(scratch, this::onLine);
+        return true;
+    }
+
+    /** Preâmbulo (formato + '\n') é confirmado com o mesmo byte; qualquer outro 1.º byte é LineJson. */
+    private void chooseWire(ByteBuffer in) throws IOException {
+        Wire requested = Wire.fromPreamble(in.get(in.position()) & 0xFF);
+        if (requested == null) {
+            framer = new LineFramer(Wire.MAX_FRAME_BYTES);
+            return;
+        }
+        in.get();
+        wire = requested;
+        framer = new LengthFramer(requested.maxContentBytes(), requested.isDeflate());
+        skipNewline = true;
+        enqueue(new byte[] {(byte) requested.preamble()});
+    }
+
+    private void onLine(byte[] line) {
+        if (line.length == 0) return;
+        synchronized (this) {
+            if (busy || inFlight >= MAX_IN_FLIGHT) {
+                pending.add(line);
+                if (!busy) {
+                    busy = true;
+                    waitingSlot = true;
+                }
+                if (pending.size() >= MAX_PENDING_LINES && !pendingPaused) {
+                    pendingPaused = true;
+                    pauseRead(PAUSE_PENDING);
+                }
+                return;
+            }
+            busy = true;
+            if (congested()) {
+                pending.add(line);
+                waitingDrain = true; // retoma em release()
+                return;
+            }
+        }
+        submit(line);
+    }
+
+    /** Escreve o que houver na fila de saída; mantém OP_WRITE enquanto o socket não aceitar tudo. */
+    void flush() throws IOException {
+        if (closed) return;
+        ByteBuffer head;
+        while ((head = outbound.peek()) != null) {
+            if (channel.write(head) > 0) lastActivityMs = System.currentTimeMillis();
+            if (head.hasRemaining()) {
+                setInterest(SelectionKey.OP_WRITE, true);
+                return;
+            }
+            outbound.poll();
+            release(head.capacity());
+        }
+        setInterest(SelectionKey.OP_WRITE, false);
+    }
+
+    private void release(int bytes) {
+        boolean wake = false;
+        boolean resumed = false;
+        synchronized (drained) {
+            queuedBytes -= bytes;
+            if (queuedBytes <= LOW_WATER_BYTES) {
+                wake = pushRefused;
+                pushRefused = false;
+                if (outputPaused) {
+                    outputPaused = false;
+                    resumeRead(PAUSE_OUTPUT); // dentro do lock: fica na fila do loop pela ordem das mudanças
+                    resumed = true;
+                }
+            }
+        }
+        if (resumed) {
+            boolean resume;
+            synchronized (this) {
+                resume = waitingDrain;
+                waitingDrain = false;
+            }
+            if (resume) next(); // só entrega a linha seguinte ao pool
+        }
+        if (wake) context.writable(); // só agenda a entrega; não bloqueia o loop
+    }
+
+    boolean isIdle(long now, long timeoutMs) {
+        synchronized (this) {
+            if (busy || inFlight > 0) return false;
+        }
+        if (context.isSubscribed()) return false;
+        return now - lastActivityMs > timeoutMs; // com saída pendente: o cliente deixou de ler
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        context.close();
+        if (key != null) key.cancel();
+        try { channel.close(); } catch (IOException ignore) {}
+    }
+
+    private void pauseRead(int reason) {
+        loop.execute(() -> {
+            readPause |= reason;
+            setInterest(SelectionKey.OP_READ, false);
+        });
+    }
+
+    private void resumeRead(int reason) {
+        loop.execute(() -> {
+            if ((readPause & reason) == 0) return;
+            readPause &= ~reason;
+            if (readPause == 0) setInterest(SelectionKey.OP_READ, true);
+        });
+    }
+
+    private void setInterest(int op, boolean on) {
+        if (key == null || !key.isValid()) return;
+        int ops = key.interestOps();
+        key.interestOps(on ? (ops | op) : (ops & ~op));
+    }
+
+    // ===== pool de negócio =====
+
+    private void submit(byte[] line) {
+        try {
+            workers.execute(() -> process(line));
+        } catch (RejectedExecutionException rex) {
+            loop.execute(this::close);
+        }
+    }
+
+    private void process(byte[] line) {
+        OutboundSink out = new OutboundSink();
+        boolean pipelined = false;
+        try {
+            Request req;
+            try {
+                req = wire.decode(line, Request.class);
+            } catch (RuntimeException | IOException ex) {
+                log("conn_error", ip, "-", "-", "Erro a ler request: " + ex.getMessage());
+                out.send(Response.error("Request inválido."));
+                return;
+            }
+            if (req != null && req.requestId != null) {
+                // resposta identificada: a linha seguinte pode começar já
+                pipelined = true;
+                synchronized (this) {
+                    inFlight++;
+                }
+                next();
+            }
+            dispatcher.dispatch(req, context, out);
+        } catch (IOException e) {
+            log("conn_error", ip, "-", "-", "Erro a escrever resposta: " + e.getMessage());
+            loop.execute(this::close);
+        } finally {
+            if (pipelined) finishPipelined();
+            else next();
+        }
+    }
+
+    private void finishPipelined() {
+        boolean resume;
+        synchronized (this) {
+            inFlight--;
+            resume = waitingSlot;
+            waitingSlot = false;
+        }
+        if (resume) next();
+    }
+
+    /** Fila de saída acima de HIGH_WATER e ainda não escoada até LOW_WATER: não começar pedidos novos. */
+    private boolean congested() {
+        synchronized (drained) {
+            return outputPaused;
+        }
+    }
+
+    /**
+     * Junta bytes para a fila de saída e pede ao loop que os escreva. Nunca espera: acima de
+     * HIGH_WATER pára a leitura da ligação; acima de MAX_QUEUED_BYTES fecha-a.
+     */
+    private void enqueue(byte[] bytes) throws IOException {
+        if (closed) throw new IOException("ligação fechada");
+        synchronized (drained) {
+            if (queuedBytes + bytes.length > MAX_QUEUED_BYTES) {
+                loop.execute(this::close);
+                throw new IOException("cliente não lê: fila de saída acima de " + MAX_QUEUED_BYTES + " bytes");
+            }
+            queuedBytes += bytes.length;
+            if (queuedBytes > HIGH_WATER_BYTES && !outputPaused) {
+                outputPaused = true;
+                pauseRead(PAUSE_OUTPUT);
+            }
+        }
+        outbound.add(ByteBuffer.wrap(bytes));
+        loop.execute(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                log("conn_error", ip, "-", "-", "Erro a escrever resposta: " + e.getMessage());
+                close();
+            }
+        });
+    }
+
+    /**
+     * FrameSink usado pelo worker: codifica frames no formato da ligação para um buffer local
+     * e entrega-o à fila de saída em blocos de CHUNK_BYTES.
+     */
+    private final class OutboundSink implements FrameSink {
+        private final ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+        private final Wire.FrameWriter w = wire.writer(buf);
+
+        @Override
+        public Wire wire() {
+            return wire;
+        }
+
+        @Override
+        public void write(Object frame) throws IOException {
+            w.write(frame);
+            w.flush();
+            if (buf.size() >= CHUNK_BYTES) push();
+        }
+
+        @Override
+        public void writeRaw(byte[] frame) throws IOException {
+            flush();
+            enqueue(frame); // partilhado (cache): a fila só lê, nunca altera o array
+        }
+
+        @Override
+        public void flush() throws IOException {
+            w.flush();
+            if (buf.size() > 0) push();
+        }
+
+        private void push() throws IOException {
+            byte[] bytes = buf.toByteArray();
+            buf.reset();
+            enqueue(bytes);
+        }
+    }
+
+    /** Target do ChangeBroadcaster (thread de push). Só enfileira; false = recusado. */
+    private boolean push(List<ChangeEvent> events) throws IOException {
+        if (closed) throw new IOException("ligação fechada");
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(events.size() * 64);
+        for (ChangeEvent e : events) buf.writeBytes(wire.encode(Response.event(e)));
+        byte[] bytes = buf.toByteArray();
+        synchronized (this) {
+            if (busy) {
+                // a meio de uma resposta: segue em next(), depois do último frame
+                if (parkedPushes.size() >= MAX_PARKED_PUSHES) {
+                    // os lotes em espera vão para a fila em next(); o aviso vem quando ela escoar
+                    synchronized (drained) {
+                        pushRefused = true;
+                    }
+                    return false;
+                }
+                parkedPushes.add(bytes);
+                return true;
+            }
+            synchronized (drained) {
+                if (queuedBytes > HIGH_WATER_BYTES) {
+                    pushRefused = true;
+                    return false;
+                }
+            }
+            enqueue(bytes);
+        }
+        return true;
+    }
+
+    private void next() {
+        byte[] line;
+        synchronized (this) {
+            byte[] parked;
+            while ((parked = parkedPushes.poll()) != null) {
+                try {
+                    enqueue(parked);
+                } catch (IOException e) {
+                    parkedPushes.clear(); // ligação fechada
+                }
+            }
+            if (inFlight >= MAX_IN_FLIGHT) {
+                waitingSlot = true; // continua 'busy'; retoma em finishPipelined()
+                return;
+            }
+            if (!pending.isEmpty() && congested()) {
+                waitingDrain = true; // continua 'busy'; retoma em release()
+                return;
+            }
+            line = pending.poll();
+            if (line == null) {
+                busy = false;
+                return;
+            }
+            if (pendingPaused && pending.size() < MAX_PENDING_LINES / 2) {
+                pendingPaused = false;
+                resumeRead(PAUSE_PENDING);
+            }
+        }
+        submit(line);
+    }
+
+    /** Encaminha para o logger UTF-8 com rotação diária. */
+    static void log(String event, String ip, String user, String action, String message) {
+        server.util.JsonLogger.log(event, ip, user, action, message);
+    }
+}
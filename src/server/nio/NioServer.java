@@ -0,0 +1,66 @@
+package server.nio;
+
+import server.RequestDispatcher;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Front-end não bloqueante: um acceptor (ServerSocketChannel + Selector)
+ * distribui as ligações em round-robin por N event loops. Ligações inactivas
+ * não ocupam threads; só os requests completos vão para o pool de negócio.
+ */
+public final class NioServer {
+
+    private final int port;
+    private final IoLoop[] loops;
+
+    public NioServer(int port, int ioThreads, long idleTimeoutMs,
+                     RequestDispatcher dispatcher, ExecutorService workers) throws IOException {
+        this.port = port;
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(dispatcher, workers, idleTimeoutMs);
+        }
+    }
+
+    /** Arranca os event loops e corre o acceptor na thread actual (bloqueia até erro). */
+    public void serve() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "nio-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try (Selector acceptSelector = Selector.open();
+             ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), 1024);
+            server.configureBlocking(false);
+            server.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+            int next = 0;
+            while (true) {
+                acceptSelector.select();
+                Iterator<SelectionKey> it = acceptSelector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                    SocketChannel ch;
+                    while ((ch = server.accept()) != null) {
+                        ch.socket().setTcpNoDelay(true);
+                        loops[next].register(ch);
+                        next = (next + 1) % loops.length;
+                    }
+                }
+            }
+        } finally {
+            for (IoLoop l : loops) l.shutdown();
+        }
+    }
+}
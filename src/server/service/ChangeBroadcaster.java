@@ -0,0 +1,196 @@
+package server.service;
+
+import common.dto.ChangeEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Difusão das escritas confirmadas para as ligações com SUBSCRIBE.
+ * - publish() nunca bloqueia quem escreve: só coloca o evento na fila limitada de cada subscritor
+ * - A entrega corre num pool limitado de threads de push (PUSH_THREADS), no máximo uma tarefa
+ *   por subscritor de cada vez; os targets não devem esperar por locks da ligação (recusam)
+ * - Fila cheia (terminal lento): descarta os eventos em espera e envia um único "resync"
+ * - Push recusado (ligação ocupada ou congestionada): o lote fica guardado e volta a ser tentado
+ *   no próximo evento ou quando o front-end avisar que a ligação escoou (Subscription.writable),
+ *   mesmo que não haja mais escritas
+ */
+public final class ChangeBroadcaster {
+
+    /**
+     * Destino dos eventos de uma ligação. Pode bloquear (modo bloqueante); false = não aceitou agora,
+     * e nesse caso o front-end tem de chamar Subscription.writable() quando voltar a aceitar.
+     */
+    public interface Target {
+        boolean push(List<ChangeEvent> events) throws IOException;
+    }
+
+    private static final int MAX_BATCH = 64;
+    private static final int PUSH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final int queueCapacity;
+    private final Set<Subscription> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService pushers;
+    private final AtomicLong version;   // só avança: publishes concorrentes chegam fora de ordem
+
+    // métricas
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+
+    public ChangeBroadcaster(int queueCapacity, long initialVersion) {
+        if (queueCapacity <= 0) throw new IllegalArgumentException("queueCapacity deve ser positivo.");
+        this.queueCapacity = queueCapacity;
+        this.version = new AtomicLong(initialVersion);
+        AtomicInteger n = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(PUSH_THREADS, PUSH_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "push-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true); // sem subscritores activos não ficam threads paradas
+        this.pushers = pool;
+    }
+
+    /** Regista uma ligação; recebe os eventos publicados a partir de agora. */
+    public Subscription subscribe(Target target) {
+        Subscription s = new Subscription(target);
+        subscribers.add(s);
+        return s;
+    }
+
+    /** Chamado depois de cada escrita confirmada. Não bloqueia nem faz I/O. */
+    public void publish(ChangeEvent e) {
+        version.accumulateAndGet(e.version, Math::max);
+        published.increment();
+        for (Subscription s : subscribers) s.offer(e);
+    }
+
+    /** Última versão publicada (base para quem subscreve agora). */
+    public long version() {
+        return version.get();
+    }
+
+    public void close() {
+        for (Subscription s : subscribers) s.close();
+        pushers.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "push{subscribers=" + subscribers.size()
+                + ", published=" + published.sum()
+                + ", delivered=" + delivered.sum()
+                + ", dropped=" + dropped.sum()
+                + ", resyncs=" + resyncs.sum() + "}";
+    }
+
+    /** Subscrição de uma ligação: fila própria e entrega serializada. */
+    public final class Subscription implements Closeable {
+        private final Target target;
+        private final ArrayBlockingQueue<ChangeEvent> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong writableSignals = new AtomicLong(); // avisos de writable(), ver drain()
+        private volatile List<ChangeEvent> held; // lote recusado, à espera de nova tentativa (só drain escreve)
+        private volatile boolean overflowed;
+        private volatile boolean closed;
+
+        private Subscription(Target target) {
+            this.target = target;
+        }
+
+        private void offer(ChangeEvent e) {
+            if (closed) return;
+            if (!queue.offer(e)) {
+                // terminal lento: o que está na fila já não serve, vai um resync
+                overflowed = true;
+                dropped.add(queue.size() + 1);
+                queue.clear();
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) return;
+            try {
+                pushers.execute(this::drain);
+            } catch (RejectedExecutionException rex) {
+                scheduled.set(false);
+            }
+        }
+
+        /**
+         * A ligação voltou a aceitar notificações depois de um push recusado: retoma a entrega
+         * (o lote guardado). Chamado pelo front-end; não bloqueia.
+         */
+        public void writable() {
+            writableSignals.incrementAndGet();
+            if (!closed && (held != null || overflowed || !queue.isEmpty())) schedule();
+        }
+
+        private void drain() {
+            boolean refused = false;
+            long signals = 0;
+            try {
+                while (!closed) {
+                    List<ChangeEvent> batch;
+                    if (overflowed) {
+                        overflowed = false;
+                        queue.clear();
+                        if (held != null) dropped.add(held.size());
+                        batch = List.of(ChangeEvent.resync(version.get()));
+                        resyncs.increment();
+                    } else if (held != null) {
+                        batch = held;
+                    } else {
+                        batch = new ArrayList<>(Math.min(queue.size(), MAX_BATCH));
+                        queue.drainTo(batch, MAX_BATCH);
+                        if (batch.isEmpty()) break;
+                    }
+                    signals = writableSignals.get();
+                    if (!target.push(batch)) {
+                        // ligação ocupada: o lote espera por writable() ou pelo próximo evento;
+                        // se entretanto a fila encher, vai um resync no lugar dele
+                        held = batch;
+                        refused = true;
+                        break;
+                    }
+                    held = null;
+                    delivered.add(batch.size());
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+            } finally {
+                scheduled.set(false);
+            }
+            // evento chegou entre o último drainTo e o reset de 'scheduled', ou writable() chegou
+            // depois da recusa mas ainda com 'scheduled' activo (o schedule() dele não contou)
+            if (closed) return;
+            if (refused ? writableSignals.get() != signals : (!queue.isEmpty() || overflowed)) schedule();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscribers.remove(this);
+            queue.clear();
+            held = null;
+        }
+    }
+}
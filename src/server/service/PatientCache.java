@@ -0,0 +1,251 @@
+package server.service;
+
+import common.model.Patient;
+import common.protocol.FrameTooLargeException;
+import common.protocol.Wire;
+import server.dao.Versioned;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache read-through de pacientes em memória.
+ * - Snapshot imutável (lista ordenada + mapa por id), trocado de uma só vez:
+ *   um leitor vê sempre o estado antes ou depois de uma escrita, nunca a meio
+ * - Snapshot só é guardado se a tabela couber em maxSnapshot registos
+ * - Fora do snapshot, GET por id usa um LRU limitado a maxById entradas
+ * - Cada escrita (depois do commit) incrementa a geração e invalida; uma carga
+ *   iniciada antes dessa escrita é descartada em vez de instalada
+ * - Cargas simultâneas partilham uma só leitura da BD (single flight com CompletableFuture)
+ * - A resposta LIST_PATIENTS já serializada (UTF-8) fica presa ao snapshot:
+ *   uma serialização por versão dos dados, partilhada por todos os pedidos
+ */
+public final class PatientCache {
+
+    /** Carga a partir da BD. */
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    /** Marca em Snapshot.encoded: a lista não cabe num frame neste formato. */
+    private static final byte[] TOO_LARGE = new byte[0];
+
+    private static final class Snapshot {
+        final Versioned<List<Patient>> rows;
+        final Map<Integer, Patient> byId;
+        final Map<Wire, byte[]> encoded = new EnumMap<>(Wire.class); // protegido pelo próprio snapshot
+        long tooLargeBytes;                                          // idem
+
+        Snapshot(Versioned<List<Patient>> rows, Map<Integer, Patient> byId) {
+            this.rows = rows;
+            this.byId = byId;
+        }
+    }
+
+    private final int maxSnapshot;
+    private final Map<Integer, Patient> recent; // LRU; protegido por 'this'
+    private final AtomicLong generation = new AtomicLong(); // muda a cada invalidação
+    private volatile Snapshot snapshot;
+    private CompletableFuture<Snapshot> loading; // carga em curso; protegido por 'this'
+
+    // ===== métricas =====
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder shared = new LongAdder();   // pedidos servidos pela carga de outro
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder oversize = new LongAdder();
+    private final LongAdder encodes = new LongAdder();
+    private final LongAdder encodedHits = new LongAdder();
+
+    public PatientCache(int maxSnapshot, int maxById) {
+        this.maxSnapshot = maxSnapshot;
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Patient> eldest) {
+                if (size() > maxById) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** Lista completa ordenada (só leitura) e a versão dos dados a que corresponde. */
+    public Versioned<List<Patient>> getAll(Loader<Versioned<List<Patient>>> loader) throws SQLException {
+        Snapshot s = snapshot;
+        if (s != null) {
+            hits.increment();
+            return s.rows;
+        }
+        return load(loader).rows;
+    }
+
+    /**
+     * Lista completa já serializada em 'wire' (frame construído por 'toFrame'). Com snapshot,
+     * codifica uma vez por versão e formato; sem snapshot (tabela demasiado grande), em cada chamada.
+     * FrameTooLargeException se a lista não couber num frame (fica registado até à próxima versão).
+     */
+    public byte[] getAllEncoded(Loader<Versioned<List<Patient>>> loader, Wire wire,
+                                Function<Versioned<List<Patient>>, Object> toFrame) throws SQLException {
+        Snapshot s = snapshot;
+        if (s != null) {
+            hits.increment();
+        } else {
+            s = load(loader);
+        }
+        synchronized (s) {
+            byte[] bytes = s.encoded.get(wire);
+            if (bytes == TOO_LARGE) throw new FrameTooLargeException(s.tooLargeBytes);
+            if (bytes == null) {
+                try {
+                    bytes = wire.encode(toFrame.apply(s.rows));
+                } catch (FrameTooLargeException e) {
+                    // não volta a serializar a lista nesta versão só para chegar ao mesmo resultado
+                    s.encoded.put(wire, TOO_LARGE);
+                    s.tooLargeBytes = e.bytes;
+                    throw e;
+                }
+                s.encoded.put(wire, bytes);
+                encodes.increment();
+            } else {
+                encodedHits.increment();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Carrega da BD (uma carga de cada vez): quem chega durante uma carga espera por ela e recebe o
+     * mesmo resultado, também quando a tabela não cabe no snapshot. Nenhum lock fica preso durante
+     * a leitura; uma invalidação desliga a carga em curso e os pedidos seguintes começam outra.
+     */
+    private Snapshot load(Loader<Versioned<List<Patient>>> loader) throws SQLException {
+        CompletableFuture<Snapshot> flight;
+        boolean leader = false;
+        long g;
+        synchronized (this) {
+            Snapshot s = snapshot;
+            if (s != null) {
+                hits.increment();
+                return s;
+            }
+            flight = loading;
+            if (flight == null) {
+                flight = loading = new CompletableFuture<>();
+                leader = true;
+            }
+            g = generation.get();
+        }
+        if (!leader) {
+            shared.increment();
+            return await(flight);
+        }
+        misses.increment();
+
+        try {
+            Versioned<List<Patient>> loaded = loader.load();
+            List<Patient> rows = Collections.unmodifiableList(loaded.value());
+            Versioned<List<Patient>> ro = new Versioned<>(loaded.version(), rows);
+            Snapshot s;
+            if (rows.size() > maxSnapshot) {
+                oversize.increment();
+                s = new Snapshot(ro, Map.of());
+            } else {
+                Map<Integer, Patient> byId = new HashMap<>(rows.size() * 4 / 3 + 1);
+                for (Patient p : rows) byId.put(p.id, p);
+                s = new Snapshot(ro, byId);
+            }
+            synchronized (this) {
+                if (rows.size() <= maxSnapshot && generation.get() == g) snapshot = s;
+                if (loading == flight) loading = null;
+            }
+            flight.complete(s);
+            return s;
+        } catch (Throwable t) {
+            synchronized (this) {
+                if (loading == flight) loading = null;
+            }
+            flight.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    /** Espera pela carga começada por outro pedido. */
+    private static Snapshot await(CompletableFuture<Snapshot> flight) throws SQLException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrompido à espera da lista de pacientes.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sql) throw sql;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new SQLException("Falhou a carga da lista de pacientes.", e.getCause());
+        }
+    }
+
+    /** Registo por id (null se não existir). */
+    public Patient get(int id, Loader<Patient> loader) throws SQLException {
+        Snapshot s = snapshot;
+        if (s != null) {
+            hits.increment();
+            return s.byId.get(id);
+        }
+        synchronized (this) {
+            Patient p = recent.get(id);
+            if (p != null) {
+                hits.increment();
+                return p;
+            }
+        }
+        misses.increment();
+
+        long g = generation.get();
+        Patient p = loader.load();
+        if (p != null) {
+            synchronized (this) {
+                if (generation.get() == g) recent.put(id, p);
+            }
+        }
+        return p;
+    }
+
+    /** Chamado depois de uma escrita confirmada; id null = chave desconhecida (limpa tudo). */
+    public void invalidate(Integer id) {
+        synchronized (this) {
+            generation.incrementAndGet();
+            snapshot = null;
+            loading = null; // quem chegar depois da escrita não aproveita uma carga anterior a ela
+            if (id != null) recent.remove(id);
+            else recent.clear();
+        }
+        invalidations.increment();
+    }
+
+    @Override
+    public String toString() {
+        Snapshot s = snapshot;
+        int lru;
+        synchronized (this) {
+            lru = recent.size();
+        }
+        return "cache{hits=" + hits.sum() + ", misses=" + misses.sum() + ", shared=" + shared.sum()
+                + ", snapshot=" + (s == null ? "-" : s.rows.value().size() + "@v" + s.rows.version())
+                + ", byId=" + lru + ", invalidations=" + invalidations.sum()
+                + ", evictions=" + evictions.sum() + ", oversize=" + oversize.sum()
+                + ", encodes=" + encodes.sum() + ", encodedHits=" + encodedHits.sum() + "}";
+    }
+}
@@ -1,19 +1,73 @@
 package server.service;
 
 import server.dao.PatientDAO;
+import server.dao.PatientDAO.Change;
+import server.dao.PatientDAO.UpsertOutcome;
+import server.dao.PatientDAO.UpsertResult;
+import server.dao.PatientDAO.Written;
+import server.dao.StorageProfile;
+import server.dao.Versioned;
+import common.dto.BulkItemResult;
+import common.dto.ChangeEvent;
 import common.dto.Request;
 import common.dto.Response;
+import common.dto.StreamFrame;
 import common.model.Patient;
+import common.model.PatientSummary;
+import common.protocol.FrameCompression;
+import common.protocol.FrameSink;
+import server.auth.AuthService;
+import server.util.JsonLogger;
 
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public class PatientService {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_DELTA_IDS = 1000;
+    // registo de alterações: guarda as últimas N versões, poda a cada PRUNE_EVERY escritas
+    private static final long CHANGE_LOG_KEEP = 10_000;
+    private static final long PRUNE_EVERY = 500;
+    // lotes (BULK_*): tamanho máximo; abaixo de PARALLEL_VALIDATION_MIN valida-se numa só thread
+    private static final int MAX_BULK_ITEMS = 10_000;
+    private static final int PARALLEL_VALIDATION_MIN = 256;
+
+    private static final int DEFAULT_CACHE_SNAPSHOT = 50_000;
+    private static final int DEFAULT_CACHE_BY_ID = 10_000;
+    private static final int DEFAULT_PUSH_QUEUE = 256;
+
     private final PatientDAO dao;
+    private final PatientCache cache;
+    private final ChangeBroadcaster broadcaster;
+
+    // Espelho em memória de data_version (actualizado depois de cada escrita)
+    private volatile long dataVersion;
 
     public PatientService(String dbFile) throws SQLException {
         this.dao = new PatientDAO(dbFile);
+        this.cache = new PatientCache(DEFAULT_CACHE_SNAPSHOT, DEFAULT_CACHE_BY_ID);
+        this.dataVersion = dao.dataVersion();
+        this.broadcaster = new ChangeBroadcaster(DEFAULT_PUSH_QUEUE, dataVersion);
+    }
+
+    public PatientService(String dbFile, int dbReaders, StorageProfile profile,
+                          int cacheMaxSnapshot, int cacheMaxById, int pushQueueCapacity) throws SQLException {
+        this.dao = new PatientDAO(dbFile, dbReaders, profile);
+        this.cache = new PatientCache(cacheMaxSnapshot, cacheMaxById);
+        this.dataVersion = dao.dataVersion();
+        this.broadcaster = new ChangeBroadcaster(pushQueueCapacity, dataVersion);
+    }
+
+    /** Notificações de escrita para as ligações com SUBSCRIBE. */
+    public ChangeBroadcaster changes() {
+        return broadcaster;
     }
 
     public Response handle(Request req) {
@@ -31,6 +85,10 @@ public class PatientService {
                 case "PING":
                     return Response.okMsg("pong");
 
+                // métricas internas (pool de BD)
+                case "STATS":
+                    return Response.okMsg(stats());
+
                 // criar paciente (mantém nomes antigos)
                 case "createPatient":
                 case "ADD_PATIENT": {
@@ -40,34 +98,82 @@ public class PatientService {
                     } catch (IllegalArgumentException ve) {
                         return Response.error(ve.getMessage());
                     }
-                    dao.addPatient(p); // preenche p.id se inserir ou ignora se duplicado (UNIQUE)
-                    return Response.okMsg("Paciente criado com sucesso");
+                    // uma instrução: cria ou devolve o existente (UNIQUE nome + dataNascimento)
+                    Written<UpsertResult> res = dao.createOrGet(p);
+                    afterWrite(ChangeEvent.CREATED, res);
+                    return upsertResponse(res.value());
+                }
+
+                // criar ou actualizar pela chave (nome + dataNascimento)
+                case "UPSERT_PATIENT": {
+                    Patient p = req.patient;
+                    try {
+                        PatientValidator.validateForCreate(p);
+                    } catch (IllegalArgumentException ve) {
+                        return Response.error(ve.getMessage());
+                    }
+                    Written<UpsertResult> res = dao.upsert(p);
+                    afterWrite(res.value().outcome() == UpsertOutcome.CREATED ? ChangeEvent.CREATED : ChangeEvent.UPDATED, res);
+                    return upsertResponse(res.value());
                 }
 
                 // listar (mantém nomes antigos)
                 case "listPatients":
                 case "LIST_PATIENTS": {
-                    List<Patient> list = dao.getAllPatients();
+                    if (req.limit != null) return listPage(req);
+                    if (notModified(req)) return Response.notModified(dataVersion);
+                    Versioned<List<Patient>> list = cache.getAll(dao::getAllPatientsVersioned);
                     Response r = new Response();
                     r.status = "ok";
                     r.message = "ok";
-                    r.data = list;
+                    r.data = list.value();
+                    r.version = list.version();
                     return r;
                 }
 
+                // lista leve para tabelas (sem endereço/histórico); paginada se vier limit
+                case "LIST_PATIENT_SUMMARIES":
+                    return listSummaries(req);
+
+                // registo completo (diálogo de detalhes/edição)
+                case "GET_PATIENT": {
+                    if (req.patient == null || req.patient.id == null) return Response.error("Informe o id.");
+                    int id = req.patient.id;
+                    Patient p = cache.get(id, () -> dao.getById(id));
+                    if (p == null) return Response.error("Não encontrado.");
+                    Response r = Response.okMsg("ok");
+                    r.patient = p;
+                    return r;
+                }
+
+                // lotes numa só transacção, com resultado por item
+                case "BULK_ADD":
+                    return bulkAdd(req);
+                case "BULK_UPDATE":
+                    return bulkUpdate(req);
+                case "BULK_DELETE":
+                    return bulkDelete(req);
+
+                // sincronização incremental (delta desde uma versão)
+                case "PATIENT_CHANGES":
+                    return changes(req);
+
                 // remover (prioriza id; fallback para (nome+dataNascimento))
                 case "DELETE_PATIENT": {
                     Patient p = req.patient;
                     if (p == null) return Response.error("Payload ausente.");
-                    int n;
+                    Written<?> w;
                     if (p.id != null) {
-                        n = dao.deleteById(p.id);
+                        w = dao.deleteById(p.id);
                     } else if (p.nome != null && p.dataNascimento != null) {
-                        n = dao.deleteByNomeDataNascimento(p.nome, p.dataNascimento.toString());
+                        w = dao.deleteByNomeDataNascimento(p.nome, p.dataNascimento.toString());
                     } else {
                         return Response.error("Informe o id ou (nome + data de nascimento).");
                     }
-                    if (n > 0) return Response.okMsg("Paciente removido.");
+                    if (w.changed()) {
+                        afterWrite(ChangeEvent.DELETED, w);
+                        return Response.okMsg("Paciente removido.");
+                    }
                     return Response.error("Não encontrado.");
                 }
 
@@ -76,25 +182,33 @@ public class PatientService {
                 case "updatePatient": {
                     Patient p = req.patient;
                     if (p == null) return Response.error("Dados do paciente não enviados.");
-                    int n;
+                    Written<?> w;
+                    boolean found;
                     if (p.id != null) {
                         try {
                             PatientValidator.validateForUpdateById(p);
                         } catch (IllegalArgumentException ve) {
                             return Response.error(ve.getMessage());
                         }
-                        n = dao.updatePatientById(p);
+                        Written<Integer> byId = dao.updatePatientById(p);
+                        found = byId.value() > 0;
+                        w = byId;
                     } else if (p.nome != null && p.dataNascimento != null) {
                         try {
                             PatientValidator.validateForUpdateByNomeData(p);
                         } catch (IllegalArgumentException ve) {
                             return Response.error(ve.getMessage());
                         }
-                        n = dao.updatePatient(p);
+                        Written<List<Integer>> byKey = dao.updatePatient(p);
+                        found = !byKey.value().isEmpty();
+                        w = byKey;
                     } else {
                         return Response.error("Para actualizar, informe id ou (nome + data de nascimento).");
                     }
-                    if (n > 0) return Response.okMsg("Paciente actualizado com sucesso.");
+                    if (found) {
+                        afterWrite(ChangeEvent.UPDATED, w); // sem evento se os dados já eram iguais
+                        return Response.okMsg("Paciente actualizado com sucesso.");
+                    }
                     return Response.error("Não encontrado para actualizar.");
                 }
 
@@ -109,8 +223,298 @@ public class PatientService {
         }
     }
 
+    private static Response upsertResponse(UpsertResult res) {
+        Response r = Response.okMsg(switch (res.outcome()) {
+            case CREATED -> "Paciente criado com sucesso";
+            case UPDATED -> "Paciente actualizado com sucesso.";
+            case EXISTED -> "Paciente já registado, sem alterações.";
+        });
+        r.outcome = switch (res.outcome()) {
+            case CREATED -> "created";
+            case UPDATED -> "updated";
+            case EXISTED -> "exists";
+        };
+        r.id = res.id();
+        return r;
+    }
+
+    /**
+     * Depois de uma escrita confirmada: invalida a cache e notifica os subscritores com um evento
+     * por linha alterada, cada um com a versão que a escrita produziu (lida na transacção dela).
+     * Nada alterado (p.ex. UPDATE com os mesmos dados) = nada a fazer. Se o registo de alterações
+     * não identificou todas as linhas, limpa a cache toda e pede resync.
+     */
+    private void afterWrite(String type, Written<?> w) throws SQLException {
+        if (!w.changed()) return;
+        List<Change> changes = w.changes();
+        if (changes.size() == 1 && w.complete()) cache.invalidate(changes.get(0).id());
+        else cache.invalidate(null); // lote: uma invalidação para todo o lote
+        long before = advanceVersion(w.version());
+        if (w.complete()) {
+            for (Change ch : changes) broadcaster.publish(ChangeEvent.of(type, ch.id(), ch.version()));
+        } else {
+            broadcaster.publish(ChangeEvent.resync(w.version()));
+        }
+        maybePrune(before, w.version());
+    }
+
+    /**
+     * Avança o espelho de data_version. Escritas concorrentes (mesmo grupo de commit) chegam
+     * aqui por outra ordem: nunca recua. Devolve o valor anterior.
+     */
+    private synchronized long advanceVersion(long now) {
+        long before = dataVersion;
+        if (now > before) dataVersion = now;
+        return before;
+    }
+
+    /** Poda o registo de alterações a cada PRUNE_EVERY versões; não espera (corre no escritor). */
+    private void maybePrune(long before, long now) throws SQLException {
+        if (now / PRUNE_EVERY == before / PRUNE_EVERY) return;
+        dao.pruneChanges(CHANGE_LOG_KEEP).whenComplete((n, e) -> {
+            if (e != null) JsonLogger.log("prune_error", "-", "-", "-", "Poda do registo de alterações falhou: " + e.getMessage());
+        });
+    }
+
+    // ===== lotes =====
+
+    private static String checkBulk(Request req) {
+        if (req.patients == null || req.patients.isEmpty()) return "Lista de pacientes vazia.";
+        if (req.patients.size() > MAX_BULK_ITEMS) return "Lote demasiado grande (máximo " + MAX_BULK_ITEMS + ").";
+        return null;
+    }
+
+    /** Aplica 'rule' a cada item (em paralelo nos lotes grandes); mensagem de erro por índice, null = válido. */
+    private static String[] validateAll(List<Patient> items, Consumer<Patient> rule) {
+        String[] errors = new String[items.size()];
+        IntStream range = IntStream.range(0, items.size());
+        if (items.size() >= PARALLEL_VALIDATION_MIN) range = range.parallel();
+        range.forEach(i -> {
+            try {
+                rule.accept(items.get(i));
+            } catch (IllegalArgumentException ve) {
+                errors[i] = ve.getMessage();
+            }
+        });
+        return errors;
+    }
+
+    /** Índices dos itens válidos; os inválidos ficam já com o resultado preenchido. */
+    private static List<Integer> validIndexes(String[] errors, BulkItemResult[] results) {
+        List<Integer> ok = new ArrayList<>(errors.length);
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] == null) ok.add(i);
+            else results[i] = BulkItemResult.of(i, BulkItemResult.INVALID, null, errors[i]);
+        }
+        return ok;
+    }
+
+    private Response bulkAdd(Request req) throws SQLException {
+        String err = checkBulk(req);
+        if (err != null) return Response.error(err);
+        List<Patient> items = req.patients;
+        BulkItemResult[] results = new BulkItemResult[items.size()];
+        List<Integer> ok = validIndexes(validateAll(items, PatientValidator::validateForCreate), results);
+
+        List<Patient> rows = new ArrayList<>(ok.size());
+        for (int i : ok) rows.add(items.get(i));
+        Written<int[]> w = dao.addPatients(rows);
+        int[] counts = w.value();
+
+        for (int k = 0; k < rows.size(); k++) {
+            Patient p = rows.get(k);
+            boolean isNew = counts[k] > 0;
+            results[ok.get(k)] = BulkItemResult.of(ok.get(k), isNew ? BulkItemResult.CREATED : BulkItemResult.EXISTS, p.id, null);
+        }
+        afterWrite(ChangeEvent.CREATED, w);
+        return bulkResponse(results, w);
+    }
+
+    private Response bulkUpdate(Request req) throws SQLException {
+        String err = checkBulk(req);
+        if (err != null) return Response.error(err);
+        List<Patient> items = req.patients;
+        BulkItemResult[] results = new BulkItemResult[items.size()];
+        List<Integer> ok = validIndexes(validateAll(items, PatientValidator::validateForUpdateById), results);
+
+        List<Patient> rows = new ArrayList<>(ok.size());
+        for (int i : ok) rows.add(items.get(i));
+        Written<int[]> w = dao.updatePatientsById(rows);
+        int[] counts = w.value();
+
+        for (int k = 0; k < rows.size(); k++) {
+            Patient p = rows.get(k);
+            boolean hit = counts[k] > 0;
+            results[ok.get(k)] = BulkItemResult.of(ok.get(k), hit ? BulkItemResult.UPDATED : BulkItemResult.NOT_FOUND, p.id, null);
+        }
+        afterWrite(ChangeEvent.UPDATED, w);
+        return bulkResponse(results, w);
+    }
+
+    private Response bulkDelete(Request req) throws SQLException {
+        String err = checkBulk(req);
+        if (err != null) return Response.error(err);
+        List<Patient> items = req.patients;
+        BulkItemResult[] results = new BulkItemResult[items.size()];
+        List<Integer> ok = new ArrayList<>(items.size());
+        List<Integer> ids = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            Patient p = items.get(i);
+            if (p == null || p.id == null) {
+                results[i] = BulkItemResult.of(i, BulkItemResult.INVALID, null, "Informe o id.");
+            } else {
+                ok.add(i);
+                ids.add(p.id);
+            }
+        }
+        Written<int[]> w = dao.deleteByIds(ids);
+        int[] counts = w.value();
+
+        for (int k = 0; k < ids.size(); k++) {
+            boolean hit = counts[k] > 0;
+            results[ok.get(k)] = BulkItemResult.of(ok.get(k), hit ? BulkItemResult.DELETED : BulkItemResult.NOT_FOUND, ids.get(k), null);
+        }
+        afterWrite(ChangeEvent.DELETED, w);
+        return bulkResponse(results, w);
+    }
+
+    /** Resposta de um lote: contagem por estado na mensagem, o resultado de cada item e a versão do lote. */
+    private Response bulkResponse(BulkItemResult[] results, Written<?> w) {
+        Map<String, Integer> byStatus = new TreeMap<>();
+        for (BulkItemResult r : results) byStatus.merge(r.status, 1, Integer::sum);
+        Response r = Response.okMsg("Lote processado: " + byStatus);
+        r.results = List.of(results);
+        r.version = w.changed() ? w.version() : dataVersion;
+        return r;
+    }
+
+    /** PATIENT_CHANGES: resumos criados/alterados e ids removidos desde 'sinceVersion'. */
+    private Response changes(Request req) throws SQLException {
+        if (req.sinceVersion == null) return Response.error("Informe sinceVersion.");
+        if (req.sinceVersion == dataVersion) return Response.notModified(dataVersion);
+
+        PatientDAO.ChangeSet cs = dao.changesSince(req.sinceVersion, MAX_DELTA_IDS);
+        Response r = Response.okMsg("ok");
+        r.version = cs.version();
+        if (cs.resync()) {
+            r.resync = true;
+            return r;
+        }
+        r.summaries = cs.upserts();
+        r.deletedIds = cs.deletedIds();
+        return r;
+    }
+
+    /** True se o cliente já tem a versão actual (pedido condicional). */
+    private boolean notModified(Request req) {
+        return req.ifVersion != null && req.ifVersion == dataVersion;
+    }
+
+    /**
+     * LIST_PATIENTS completo: escreve a resposta serializada em cache (uma serialização
+     * por versão dos dados e formato da ligação, partilhada por todos os terminais que recarregam).
+     * Com ifVersion igual à versão actual responde "not_modified" sem payload.
+     */
+    public void listPatients(Request req, FrameSink out) throws IOException {
+        if (notModified(req)) {
+            out.send(Response.notModified(dataVersion));
+            return;
+        }
+        byte[] frame;
+        try {
+            frame = cache.getAllEncoded(dao::getAllPatientsVersioned, out.wire(), PatientService::listResponse);
+        } catch (SQLException e) {
+            out.send(Response.error("Erro de BD: " + e.getMessage()));
+            return;
+        }
+        out.writeRaw(frame);
+        out.flush();
+    }
+
+    private static Response listResponse(Versioned<List<Patient>> list) {
+        Response r = Response.okMsg("ok");
+        r.data = list.value();
+        r.version = list.version();
+        return r;
+    }
+
+    /**
+     * STREAM_PATIENTS: Response inicial, um StreamFrame por paciente e um frame final (end=true).
+     * Cada paciente é escrito no socket à medida que sai do ResultSet; memória constante.
+     */
+    public void streamPatients(FrameSink out) throws IOException {
+        out.write(Response.okMsg("stream"));
+        int[] n = {0};
+        String error = null;
+        try {
+            dao.streamAllPatients(p -> {
+                out.write(StreamFrame.of(p));
+                n[0]++;
+            });
+        } catch (SQLException e) {
+            error = "Erro de BD: " + e.getMessage();
+        }
+        out.write(StreamFrame.end(n[0], error));
+        out.flush();
+    }
+
+    /** LIST_PATIENTS paginado: lê limit+1 linhas para saber se existe página seguinte. */
+    private Response listPage(Request req) throws SQLException {
+        if (req.limit <= 0) return Response.error("limit deve ser positivo.");
+        if ((req.afterId == null) != (req.afterNome == null))
+            return Response.error("Cursor incompleto: envie afterId e afterNome.");
+        if (req.afterId == null && notModified(req)) return Response.notModified(dataVersion);
+        int limit = Math.min(req.limit, MAX_PAGE_SIZE);
+
+        long version = dataVersion; // lida antes da consulta: nunca mais recente que os dados
+        List<Patient> rows = dao.getPatientsPage(req.afterNome, req.afterId, limit + 1);
+        Response r = new Response();
+        r.status = "ok";
+        r.message = "ok";
+        r.version = version;
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            Patient last = rows.get(limit - 1);
+            r.nextAfterId = last.id;
+            r.nextAfterNome = last.nome;
+        }
+        r.data = new ArrayList<>(rows);
+        return r;
+    }
+
+    private Response listSummaries(Request req) throws SQLException {
+        if ((req.afterId == null) != (req.afterNome == null))
+            return Response.error("Cursor incompleto: envie afterId e afterNome.");
+        // condicional só faz sentido na primeira página
+        if (req.afterId == null && notModified(req)) return Response.notModified(dataVersion);
+        Response r = Response.okMsg("ok");
+        r.version = dataVersion; // lida antes da consulta: nunca mais recente que os dados
+        if (req.limit == null) {
+            r.summaries = dao.getSummariesPage(req.afterNome, req.afterId, -1);
+            return r;
+        }
+        if (req.limit <= 0) return Response.error("limit deve ser positivo.");
+        int limit = Math.min(req.limit, MAX_PAGE_SIZE);
+
+        List<PatientSummary> rows = dao.getSummariesPage(req.afterNome, req.afterId, limit + 1);
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            PatientSummary last = rows.get(limit - 1);
+            r.nextAfterId = last.id;
+            r.nextAfterNome = last.nome;
+        }
+        r.summaries = new ArrayList<>(rows);
+        return r;
+    }
+
+    /** Métricas em texto (uma secção por componente). */
+    public String stats() {
+        return dao.poolStats() + " " + dao.writerStats() + " " + cache + " " + broadcaster
+                + " " + FrameCompression.stats() + " " + JsonLogger.stats() + " " + AuthService.stats();
+    }
+
     // utilitários
-    public void addPatient(Patient p) throws SQLException { dao.addPatient(p); }
-    public List<Patient> listPatients() throws SQLException { return dao.getAllPatients(); }
-    public void close() throws SQLException { dao.close(); }
+    public void addPatient(Patient p) throws SQLException { afterWrite(ChangeEvent.CREATED, dao.createOrGet(p)); }
+    public List<Patient> listPatients() throws SQLException { return cache.getAll(dao::getAllPatientsVersioned).value(); }
+    public void close() throws SQLException { broadcaster.close(); dao.close(); }
 }
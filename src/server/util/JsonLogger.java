@@ -1,76 +1,338 @@
 package server.util;
 
 import java.io.IOException;
-import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Logger JSON simples:
- * - Escreve em UTF-8 para logs/server-YYYYMMDD.log
- * - Cria a pasta logs/ se não existir
- * - Fallback para consola (UTF-8) se falhar o ficheiro
+ * Logger JSON assíncrono:
+ * - log() só reserva uma posição num anel sem locks (vários produtores, 1 consumidor) e regressa
+ * - Uma thread "json-logger" codifica (LogLineEncoder, sem lixo) e escreve em lotes num FileChannel que fica aberto
+ * - Escreve em UTF-8 para logs/server-YYYYMMDD.log; muda de ficheiro à meia-noite (data do evento)
+ * - Anel cheio: DROP descarta o evento (contado), BLOCK espera por espaço (contrapressão)
+ * - Fallback para consola (UTF-8) se falhar o ficheiro; um erro de I/O muda a política para DROP
+ *   (quem usa BLOCK não fica preso à espera de uma thread que já não consegue escrever)
+ * - Um erro ao codificar/escrever um lote é reportado na consola e a thread continua
  * - Campos: ts, event, ip, user, action, message
  */
 public final class JsonLogger {
 
     private JsonLogger() {}
 
-    private static final Object LOCK = new Object();
+    /** O que log() faz quando o anel está cheio. */
+    public enum Overflow { DROP, BLOCK }
+
     private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
-    private static final DateTimeFormatter ISO  = DateTimeFormatter.ISO_INSTANT;
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = 100_000_000L;  // rede de segurança para unparks perdidos
+    private static final long REOPEN_RETRY_MS = 5_000;
 
-    /** Diretório configurável via -Dserver.log.dir=... (default "logs") */
-    private static Path logPathForToday() {
-        String dir = System.getProperty("server.log.dir", "logs");
-        String file = "server-" + LocalDate.now().format(DATE) + ".log";
-        Path folder = Path.of(dir);
-        try {
-            Files.createDirectories(folder);
-        } catch (IOException ignored) {}
-        return folder.resolve(file);
+    private static volatile int capacity = 8192;
+    private static volatile Overflow overflow = Overflow.DROP;
+    private static volatile long lagWarnMs = 1000;
+
+    private static volatile Ring ring;
+
+    // métricas
+    private static final LongAdder dropped = new LongAdder();
+    private static final LongAdder blocked = new LongAdder();
+    private static final LongAdder errors = new LongAdder();     // lotes com erro na thread de escrita
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong lagged = new AtomicLong();   // escritos mais de lagWarnMs depois do log()
+    private static volatile long maxLagMs;
+
+    /**
+     * Chamado pelo Server antes do 1.º log. A capacidade (arredondada a potência de 2)
+     * só conta antes do arranque da thread; a política e o limiar de atraso mudam a quente.
+     */
+    public static void configure(int queueCapacity, Overflow policy, long lagWarningMs) {
+        capacity = Math.max(16, queueCapacity);
+        overflow = policy;
+        lagWarnMs = lagWarningMs;
     }
 
     public static void log(String event, String ip, String user, String action, String message) {
-        String ts = ISO.format(Instant.now().atOffset(ZoneOffset.UTC));
-        String json = buildJson(ts, event, ip, user, action, message) + System.lineSeparator();
-        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        Ring r = ring;
+        if (r == null) r = start();
+        if (r.closed) {
+            dropped.increment();
+            return;
+        }
+        long ts = System.currentTimeMillis();
+        while (!r.offer(ts, event, ip, user, action, message)) {
+            if (overflow == Overflow.DROP || r.closed || !r.writer.isAlive()) {
+                dropped.increment();
+                return;
+            }
+            blocked.increment();
+            r.wakeWriter();
+            LockSupport.parkNanos(50_000);
+        }
+        r.wakeWriter();
+    }
 
-        synchronized (LOCK) {
-            try {
-                Files.write(logPathForToday(), bytes,
-                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-            } catch (IOException e) {
-                // Fallback para consola em UTF-8 (caso Windows mude a página de códigos)
-                try {
-                    PrintStream ps = new PrintStream(System.out, true, "UTF-8");
-                    ps.print(json);
-                } catch (UnsupportedEncodingException ex) {
-                    System.out.print(json);
+    /** Escreve o que está no anel e pára a thread (também corre no shutdown da JVM). */
+    public static void close() {
+        Ring r = ring;
+        if (r == null || r.closed) return;
+        r.closed = true;
+        LockSupport.unpark(r.writer);
+        try {
+            r.writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Ex.: log{written=1200, queued=3, dropped=0, blocked=0, lagged=0, maxLagMs=2, batches=40, errors=0} */
+    public static String stats() {
+        Ring r = ring;
+        return "log{written=" + written.get() + ", queued=" + (r == null ? 0 : r.size())
+                + ", dropped=" + dropped.sum() + ", blocked=" + blocked.sum()
+                + ", lagged=" + lagged.get() + ", maxLagMs=" + maxLagMs + ", batches=" + batches.get() + ", errors=" + errors.sum() + "}";
+    }
+
+    private static synchronized Ring start() {
+        if (ring != null) return ring;
+        Ring r = new Ring(Integer.highestOneBit(capacity - 1) << 1);
+        r.writer = new Thread(new Writer(r), "json-logger");
+        r.writer.setDaemon(true);
+        r.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(JsonLogger::close, "json-logger-shutdown"));
+        ring = r;
+        return r;
+    }
+
+    /**
+     * Anel limitado de posições reutilizadas (esquema de Vyukov): cada posição tem uma sequência
+     * que diz se está livre para o produtor da volta 'tail' ou publicada para o consumidor.
+     * Os produtores disputam o tail por CAS; só a thread de escrita mexe no head.
+     */
+    private static final class Ring {
+        final Slot[] slots;
+        final AtomicLongArray seq;
+        final int mask;
+        final AtomicLong tail = new AtomicLong();
+        volatile long head;
+        volatile boolean idle;
+        volatile boolean closed;
+        Thread writer;
+
+        Ring(int size) {
+            slots = new Slot[size];
+            seq = new AtomicLongArray(size);
+            mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Slot();
+                seq.set(i, i);
+            }
+        }
+
+        boolean offer(long ts, String event, String ip, String user, String action, String message) {
+            while (true) {
+                long t = tail.get();
+                int i = (int) t & mask;
+                long d = seq.get(i) - t;
+                if (d < 0) return false;                   // ainda por consumir da volta anterior: cheio
+                if (d == 0 && tail.compareAndSet(t, t + 1)) {
+                    Slot s = slots[i];
+                    s.ts = ts;
+                    s.event = event;
+                    s.ip = ip;
+                    s.user = user;
+                    s.action = action;
+                    s.message = message;
+                    seq.set(i, t + 1);                     // publica (volatile: ordena com a leitura de idle)
+                    return true;
                 }
+                Thread.onSpinWait();
             }
         }
+
+        /** Só a thread de escrita; null se não houver evento publicado na posição seguinte. */
+        Slot peek() {
+            long h = head;
+            return seq.get((int) h & mask) == h + 1 ? slots[(int) h & mask] : null;
+        }
+
+        /** Liberta a posição devolvida por peek() para a próxima volta. */
+        void release(Slot s) {
+            long h = head;
+            s.event = s.ip = s.user = s.action = s.message = null;
+            seq.lazySet((int) h & mask, h + slots.length);
+            head = h + 1;
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head);
+        }
+
+        void wakeWriter() {
+            if (idle) LockSupport.unpark(writer);
+        }
     }
 
-    private static String buildJson(String ts, String event, String ip, String user, String action, String message) {
-        return "{\"ts\":\"" + esc(ts) + "\"," +
-               "\"event\":\"" + esc(event) + "\"," +
-               "\"ip\":\"" + esc(ip) + "\"," +
-               "\"user\":\"" + esc(user) + "\"," +
-               "\"action\":\"" + esc(action) + "\"," +
-               "\"message\":\"" + esc(message) + "\"}";
+    /** Erro da própria thread de escrita: vai para stderr (o log é que falhou). */
+    private static void report(String what, Throwable t) {
+        System.err.println("json-logger: " + what + ": " + t);
     }
 
-    /** Escapes JSON simples (aspas, barra invertida e quebras). */
-    private static String esc(String s) {
-        if (s == null) return "-";
-        return s
-            .replace("\\", "\\\\")
-            .replace("\"", "\\\"")
-            .replace("\n", "\\n")
-            .replace("\r", "\\r");
+    private static final class Slot {
+        long ts;
+        String event, ip, user, action, message;
+    }
+
+    /** Consumidor único: junta linhas num buffer e escreve-as de uma vez. */
+    private static final class Writer implements Runnable {
+        private final Ring ring;
+        private final ByteBuffer batch = ByteBuffer.allocate(BATCH_BYTES);
+        private final LogLineEncoder encoder = new LogLineEncoder(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+        private FileChannel channel;
+        private LocalDate day;
+        private long dayStartMs, nextDayMs;   // dia do ficheiro aberto, [início, fim)
+        private long retryAtMs;
+
+        Writer(Ring ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean any = false;
+                try {
+                    Slot s;
+                    while ((s = ring.peek()) != null) {
+                        try {
+                            append(s);
+                        } finally {
+                            ring.release(s);                // evento que falhou não volta a ser tentado
+                        }
+                        any = true;
+                    }
+                    if (any) flush();
+                } catch (Throwable t) {
+                    // um lote com erro não pode parar a thread: os produtores ficariam sem consumidor
+                    errors.increment();
+                    dropped.increment();
+                    report("erro a escrever o log, evento descartado", t);
+                    any = true;
+                }
+                if (any) continue;
+                if (ring.closed) break;
+                ring.idle = true;
+                if (ring.peek() == null && !ring.closed) LockSupport.parkNanos(IDLE_PARK_NANOS);
+                ring.idle = false;
+            }
+            closeChannel();
+        }
+
+        private void append(Slot s) {
+            if (s.ts >= nextDayMs || s.ts < dayStartMs) {
+                flush();
+                roll(s.ts);
+            }
+            int max = encoder.maxBytes(s.event, s.ip, s.user, s.action, s.message);
+            if (max > batch.remaining()) flush();
+            if (max > batch.capacity()) {
+                ByteBuffer big = ByteBuffer.allocate(max);   // linha enorme (raro): buffer só para ela
+                encoder.encode(big, s.ts, s.event, s.ip, s.user, s.action, s.message);
+                writeOut(big.flip());
+            } else {
+                int start = batch.position();
+                try {
+                    encoder.encode(batch, s.ts, s.event, s.ip, s.user, s.action, s.message);
+                } catch (RuntimeException e) {
+                    batch.position(start);                  // sem meia linha no lote: as anteriores seguem
+                    throw e;
+                }
+            }
+
+            long lag = System.currentTimeMillis() - s.ts;
+            if (lag > maxLagMs) maxLagMs = lag;
+            if (lag > lagWarnMs) lagged.incrementAndGet();
+            written.incrementAndGet();
+        }
+
+        private void flush() {
+            if (batch.position() == 0) return;
+            batch.flip();
+            try {
+                writeOut(batch);
+            } finally {
+                batch.clear();                              // um lote que falhou não é repetido
+            }
+            batches.incrementAndGet();
+        }
+
+        private void writeOut(ByteBuffer buf) {
+            if (channel == null && day != null && System.currentTimeMillis() >= retryAtMs) open(day);
+            try {
+                if (channel != null) {
+                    while (buf.hasRemaining()) channel.write(buf);
+                    return;
+                }
+            } catch (IOException e) {
+                closeChannel();
+                retryAtMs = System.currentTimeMillis() + REOPEN_RETRY_MS;
+                degrade(e);
+            }
+            // Fallback para consola em UTF-8 (bytes tal e qual, sem depender da página de códigos)
+            System.out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            System.out.flush();
+            buf.position(buf.limit());
+        }
+
+        /** Fecha o ficheiro do dia anterior e abre o do dia do evento. */
+        private void roll(long ts) {
+            ZoneId zone = ZoneId.systemDefault();
+            day = Instant.ofEpochMilli(ts).atZone(zone).toLocalDate();
+            dayStartMs = day.atStartOfDay(zone).toInstant().toEpochMilli();
+            nextDayMs = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            closeChannel();
+            open(day);
+        }
+
+        /** Diretório configurável via -Dserver.log.dir=... (default "logs") */
+        private void open(LocalDate day) {
+            Path folder = Path.of(System.getProperty("server.log.dir", "logs"));
+            try {
+                Files.createDirectories(folder);
+                channel = FileChannel.open(folder.resolve("server-" + day.format(DATE) + ".log"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                channel = null;
+                retryAtMs = System.currentTimeMillis() + REOPEN_RETRY_MS;
+                degrade(e);
+            }
+        }
+
+        /** Erro de I/O no ficheiro: segue para a consola e deixa de bloquear produtores. */
+        private void degrade(IOException e) {
+            errors.increment();
+            if (overflow != Overflow.DROP) {
+                overflow = Overflow.DROP;
+                report("erro de I/O no ficheiro de log, a política passa a DROP", e);
+            } else {
+                report("erro de I/O no ficheiro de log", e);
+            }
+        }
+
+        private void closeChannel() {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            channel = null;
+        }
     }
 }
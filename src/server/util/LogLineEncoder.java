@@ -0,0 +1,125 @@
+package server.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Codifica uma linha de log JSON directamente em UTF-8 num ByteBuffer, sem Strings intermédias.
+ * - Escapes char a char (aspas, barra invertida, controlos) em vez de String.replace encadeados
+ * - O prefixo do timestamp ("2026-01-31T12:00:00.") só é formatado quando muda o segundo
+ * - Não é thread-safe: cada instância pertence a uma thread (no JsonLogger, a de escrita)
+ */
+final class LogLineEncoder {
+
+    private static final DateTimeFormatter SECOND =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    private static final byte[] TS = ascii("{\"ts\":\"");
+    private static final byte[] EVENT = ascii("Z\",\"event\":\"");
+    private static final byte[] IP = ascii("\",\"ip\":\"");
+    private static final byte[] USER = ascii("\",\"user\":\"");
+    private static final byte[] ACTION = ascii("\",\"action\":\"");
+    private static final byte[] MESSAGE = ascii("\",\"message\":\"");
+    private static final byte[] END = ascii("\"}");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    /** Bytes fixos de uma linha: nomes dos campos, timestamp e o fim de linha. */
+    private static final int FIXED_BYTES = TS.length + 24 + EVENT.length + IP.length + USER.length
+            + ACTION.length + MESSAGE.length + END.length;
+
+    private final byte[] newline;
+    private final byte[] secondPrefix = new byte[20];   // "yyyy-MM-ddTHH:mm:ss."
+    private long cachedSecond = Long.MIN_VALUE;
+
+    LogLineEncoder(byte[] newline) {
+        this.newline = newline;
+    }
+
+    /** Limite superior do tamanho da linha (6 bytes por char: o pior caso é \\u00XX). */
+    int maxBytes(String event, String ip, String user, String action, String message) {
+        return FIXED_BYTES + newline.length
+                + 6 * (len(event) + len(ip) + len(user) + len(action) + len(message));
+    }
+
+    /** Escreve a linha completa; o buffer tem de ter pelo menos maxBytes(...) livres. */
+    void encode(ByteBuffer out, long epochMs, String event, String ip, String user, String action, String message) {
+        out.put(TS);
+        timestamp(out, epochMs);
+        out.put(EVENT);
+        string(out, event);
+        out.put(IP);
+        string(out, ip);
+        out.put(USER);
+        string(out, user);
+        out.put(ACTION);
+        string(out, action);
+        out.put(MESSAGE);
+        string(out, message);
+        out.put(END).put(newline);
+    }
+
+    /** ISO-8601 em UTC com milissegundos, sem o 'Z' (vem no campo seguinte). */
+    private void timestamp(ByteBuffer out, long epochMs) {
+        long second = Math.floorDiv(epochMs, 1000L);
+        if (second != cachedSecond) {
+            String s = SECOND.format(Instant.ofEpochSecond(second));
+            for (int i = 0; i < 19; i++) secondPrefix[i] = (byte) s.charAt(i);
+            secondPrefix[19] = '.';
+            cachedSecond = second;
+        }
+        int ms = (int) Math.floorMod(epochMs, 1000L);
+        out.put(secondPrefix)
+           .put((byte) ('0' + ms / 100))
+           .put((byte) ('0' + ms / 10 % 10))
+           .put((byte) ('0' + ms % 10));
+    }
+
+    /** Conteúdo de uma string JSON (sem aspas): escapes mínimos e UTF-8 à mão; null = "-". */
+    private static void string(ByteBuffer out, String s) {
+        if (s == null) {
+            out.put((byte) '-');
+            return;
+        }
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '"' -> out.put((byte) '\\').put((byte) '"');
+                    case '\\' -> out.put((byte) '\\').put((byte) '\\');
+                    case '\n' -> out.put((byte) '\\').put((byte) 'n');
+                    case '\r' -> out.put((byte) '\\').put((byte) 'r');
+                    case '\t' -> out.put((byte) '\\').put((byte) 't');
+                    default -> {
+                        if (c < 0x20) {
+                            out.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                               .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+                        } else {
+                            out.put((byte) c);
+                        }
+                    }
+                }
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+                   .put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');                       // surrogate solto: igual a getBytes(UTF_8)
+            } else {
+                out.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private static int len(String s) {
+        return s == null ? 1 : s.length();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
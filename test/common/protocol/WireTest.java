@@ -0,0 +1,115 @@
+package common.protocol;
+
+import common.dto.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Limite de tamanho na escrita: um frame acima de Wire.MAX_FRAME_BYTES é recusado antes de sair
+ * (o leitor do outro lado recusá-lo-ia) e a ligação continua utilizável. Frames em cache recebem
+ * o requestId sem serem recodificados. Corre com java.
+ */
+public final class WireTest {
+
+    public static void main(String[] args) throws Exception {
+        for (Wire wire : Wire.values()) {
+            oversizeEncodeThrows(wire);
+            oversizeWriteLeavesStreamClean(wire);
+            cachedFrameTakesRequestId(wire, Response.okMsg("curto"));
+            cachedFrameTakesRequestId(wire, Response.okMsg(text(4000)));
+        }
+        largestJsonLineRoundTrips();
+        System.out.println("WireTest: OK");
+    }
+
+    /** encode() de um frame grande demais lança FrameTooLargeException. */
+    static void oversizeEncodeThrows(Wire wire) {
+        try {
+            wire.encode(Response.okMsg(text(Wire.MAX_FRAME_BYTES + 1)));
+        } catch (FrameTooLargeException e) {
+            check(e.bytes > Wire.MAX_FRAME_BYTES, wire + ": tamanho reportado " + e.bytes);
+            return;
+        }
+        throw new AssertionError(wire + ": encode aceitou um frame acima do limite");
+    }
+
+    /** O writer não deixa meio frame na stream e o frame seguinte lê-se normalmente. */
+    static void oversizeWriteLeavesStreamClean(Wire wire) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Wire.FrameWriter w = wire.writer(os);
+        try {
+            w.write(Response.okMsg(text(Wire.MAX_FRAME_BYTES + 1)));
+            throw new AssertionError(wire + ": write aceitou um frame acima do limite");
+        } catch (FrameTooLargeException expected) {
+            // esperado
+        }
+        w.flush();
+        check(os.size() == 0, wire + ": ficaram " + os.size() + " bytes na stream");
+
+        w.write(Response.error("pequeno"));
+        w.flush();
+        Response r = wire.reader(new ByteArrayInputStream(os.toByteArray())).read(Response.class);
+        check("error".equals(r.status) && "pequeno".equals(r.message), wire + ": frame seguinte veio " + r.message);
+    }
+
+    /**
+     * withRequestId sobre um frame em cache: lê-se com o requestId e o frame seguinte continua
+     * enquadrado. Com compressão o corpo do frame em cache segue tal e qual (sem recomprimir).
+     */
+    static void cachedFrameTakesRequestId(Wire wire, Response cachedResponse) throws Exception {
+        byte[] cached = wire.encode(cachedResponse);
+        byte[] copy = cached.clone();
+        byte[] tagged = wire.withRequestId(cached, 1L << 40);
+        check(Arrays.equals(cached, copy), wire + ": frame em cache alterado");
+
+        if (wire.isDeflate()) {
+            int header = 0;
+            while (cached[header] < 0) header++;
+            header++;
+            byte[] body = Arrays.copyOfRange(cached, header, cached.length);
+            byte[] tail = Arrays.copyOfRange(tagged, tagged.length - body.length, tagged.length);
+            check(Arrays.equals(body, tail), wire + ": corpo do frame recodificado");
+            if (cachedResponse.message.length() > FrameCompression.MIN_BYTES) {
+                check((cached[0] & 1) != 0, wire + ": frame grande não foi comprimido");
+            }
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(tagged);
+        os.write(wire.encode(Response.error("seguinte")));
+        Wire.FrameReader reader = wire.reader(new ByteArrayInputStream(os.toByteArray()));
+        Response r = reader.read(Response.class);
+        check(Long.valueOf(1L << 40).equals(r.requestId), wire + ": requestId lido " + r.requestId);
+        check(cachedResponse.message.equals(r.message), wire + ": mensagem lida com " + r.message.length() + " chars");
+        Response next = reader.read(Response.class);
+        check(next.requestId == null && "seguinte".equals(next.message), wire + ": frame seguinte veio " + next.message);
+    }
+
+    /** Uma linha JSON com exactamente MAX_FRAME_BYTES (sem o '\n') passa na escrita e na leitura. */
+    static void largestJsonLineRoundTrips() throws Exception {
+        int overhead = Wire.JSON.encode(Response.okMsg("")).length - 1;
+        Response big = Response.okMsg(text(Wire.MAX_FRAME_BYTES - overhead));
+        byte[] line = Wire.JSON.encode(big);
+        check(line.length - 1 == Wire.MAX_FRAME_BYTES, "linha com " + (line.length - 1) + " bytes");
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Wire.FrameWriter w = Wire.JSON.writer(os);
+        w.write(big);
+        w.flush();
+        check(Arrays.equals(os.toByteArray(), line), "writer e encode divergem");
+        Response r = Wire.JSON.reader(new ByteArrayInputStream(line)).read(Response.class);
+        check(r.message.length() == big.message.length(), "mensagem lida com " + r.message.length() + " chars");
+    }
+
+    private static String text(int chars) {
+        char[] c = new char[chars];
+        Arrays.fill(c, 'x');
+        return new String(c);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
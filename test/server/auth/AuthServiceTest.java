@@ -0,0 +1,93 @@
+package server.auth;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Revogação por sessão: um LOGOUT invalida todos os tokens da cadeia de renovações, seja qual for
+ * o token apresentado; as revogações ficam limitadas por utilizador, não por um limite global.
+ * Corre com java (sai com erro se algum caso falhar).
+ */
+public final class AuthServiceTest {
+
+    private static final String KEY = "chave-de-teste";
+    private static final long TTL_MS = 30 * 60_000L;
+
+    public static void main(String[] args) {
+        AuthService.configure(KEY);
+        logoutWithRenewedTokenRevokesEarlier();
+        logoutWithEarlierTokenRevokesRenewed();
+        otherSessionsSurviveLogout();
+        manyRevocationsKeepTheFirst();
+        sessionLimitIsPerUser();
+        System.out.println("AuthServiceTest: OK");
+    }
+
+    /** O cliente ainda guarda o 1.º token; o LOGOUT chega com o renovado. */
+    static void logoutWithRenewedTokenRevokesEarlier() {
+        String first = login();
+        String renewed = renewal(first);
+        check(AuthService.authenticate(renewed) != null, "token renovado válido");
+
+        AuthService.revoke(AuthService.authenticate(renewed));
+        check(AuthService.authenticate(renewed) == null, "token renovado revogado");
+        check(AuthService.authenticate(first) == null, "token anterior da mesma sessão revogado");
+    }
+
+    /** O LOGOUT chega com o token antigo, depois de já ter havido renovação. */
+    static void logoutWithEarlierTokenRevokesRenewed() {
+        String first = login();
+        String renewed = renewal(first);
+
+        AuthService.revoke(AuthService.authenticate(first));
+        check(AuthService.authenticate(first) == null, "token apresentado revogado");
+        check(AuthService.authenticate(renewed) == null, "token renovado da mesma sessão revogado");
+    }
+
+    static void otherSessionsSurviveLogout() {
+        String a = login();
+        String b = login();
+        AuthService.revoke(AuthService.authenticate(a));
+        check(AuthService.authenticate(b) != null, "outra sessão do mesmo utilizador continua válida");
+    }
+
+    /** Revogações não saem por excesso (antes saíam acima de 10 000 e o token voltava a valer). */
+    static void manyRevocationsKeepTheFirst() {
+        String first = login();
+        AuthService.revoke(AuthService.authenticate(first));
+        long exp = System.currentTimeMillis() + TTL_MS;
+        for (int i = 0; i < 12_000; i++) AuthService.revoke(new AuthService.Principal("admin", exp, "s" + i));
+        check(AuthService.authenticate(first) == null, "1.ª sessão revogada continua revogada");
+    }
+
+    /** O limite de sessões novas trava só o utilizador que o atingiu; as sessões abertas continuam. */
+    static void sessionLimitIsPerUser() {
+        String open = login();
+        int logins = 0;
+        while (AuthService.login("admin", "1234", "127.0.0.1") != null) {
+            check(++logins <= 100, "sem limite de sessões novas por utilizador");
+        }
+        check(AuthService.sessionLimitRemainingMs("admin") > 0, "espera reportada ao utilizador limitado");
+        check(AuthService.authenticate(open) != null, "sessão já aberta continua válida");
+        check(AuthService.login("medico", "sd2025", "127.0.0.2") != null, "outro utilizador continua a entrar");
+        check(AuthService.sessionLimitRemainingMs("medico") == 0, "outro utilizador sem espera");
+    }
+
+    private static String login() {
+        String token = AuthService.login("admin", "1234", "127.0.0.1");
+        check(token != null, "login");
+        return token;
+    }
+
+    /** O que renewIfStale emitiria mais tarde: mesma sessão, expiração posterior. */
+    private static String renewal(String token) {
+        AuthService.Principal p = AuthService.authenticate(token);
+        String renewed = new TokenSigner(KEY.getBytes(StandardCharsets.UTF_8))
+                .sign(p.user(), p.expiresAtMs() + TTL_MS / 2, p.sessionId());
+        check(!renewed.equals(token), "token renovado diferente");
+        return renewed;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,67 @@
+package server.dao;
+
+import common.model.Patient;
+import server.dao.PatientDAO.UpsertOutcome;
+import server.dao.PatientDAO.UpsertResult;
+import server.dao.PatientDAO.Written;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * createOrGet/upsert: o resultado (criado, alterado, já existia) sai sem escrever quando nada muda —
+ * um ADD repetido ou um upsert com os mesmos dados não avança a versão nem regista alterações.
+ * Corre com java e o driver SQLite no classpath (sai com erro se algum caso falhar).
+ */
+public final class PatientDAOTest {
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("patientdao");
+        PatientDAO dao = new PatientDAO(dir.resolve("test.db").toString());
+        try {
+            duplicateAddDoesNotWrite(dao);
+            upsertReportsEachOutcome(dao);
+        } finally {
+            dao.close();
+        }
+        System.out.println("PatientDAOTest: OK");
+    }
+
+    static void duplicateAddDoesNotWrite(PatientDAO dao) throws Exception {
+        Written<UpsertResult> created = dao.createOrGet(patient("Ana Silva", "841000001"));
+        check(created.value().outcome() == UpsertOutcome.CREATED, "1.º ADD: " + created.value());
+        check(created.changes().size() == 1, "1.º ADD regista uma alteração");
+
+        long before = dao.dataVersion();
+        Written<UpsertResult> again = dao.createOrGet(patient("Ana Silva", "849999999"));
+        check(again.value().outcome() == UpsertOutcome.EXISTED, "ADD repetido: " + again.value());
+        check(again.value().id() == created.value().id(), "ADD repetido devolve o id existente");
+        check(!again.changed() && dao.dataVersion() == before, "ADD repetido não escreve");
+        check("841000001".equals(dao.getById(created.value().id()).telefone), "ADD repetido não altera a linha");
+    }
+
+    static void upsertReportsEachOutcome(PatientDAO dao) throws Exception {
+        Written<UpsertResult> created = dao.upsert(patient("Rui Costa", "842000001"));
+        check(created.value().outcome() == UpsertOutcome.CREATED, "upsert novo: " + created.value());
+
+        long before = dao.dataVersion();
+        Written<UpsertResult> same = dao.upsert(patient("Rui Costa", "842000001"));
+        check(same.value().outcome() == UpsertOutcome.EXISTED, "upsert igual: " + same.value());
+        check(!same.changed() && dao.dataVersion() == before, "upsert igual não escreve");
+
+        Written<UpsertResult> updated = dao.upsert(patient("Rui Costa", "842000002"));
+        check(updated.value().outcome() == UpsertOutcome.UPDATED, "upsert alterado: " + updated.value());
+        check(updated.value().id() == created.value().id(), "upsert alterado mantém o id");
+        check(updated.changes().size() == 1 && dao.dataVersion() == before + 1, "upsert alterado regista uma alteração");
+        check("842000002".equals(dao.getById(created.value().id()).telefone), "upsert alterado grava o campo");
+    }
+
+    private static Patient patient(String nome, String telefone) {
+        return new Patient(nome, 40, null, telefone, null, null, "Feminino", LocalDate.of(1985, 3, 1), null, null);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
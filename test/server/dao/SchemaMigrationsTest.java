@@ -0,0 +1,76 @@
+package server.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Índices do esquema: só existem os que as consultas usam, e as consultas de lista e de procura
+ * usam-nos (EXPLAIN QUERY PLAN sem varrimento da tabela nem ordenação em B-tree temporária).
+ * Corre com java e o driver SQLite no classpath (sai com erro se algum caso falhar).
+ */
+public final class SchemaMigrationsTest {
+
+    public static void main(String[] args) throws Exception {
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            SchemaMigrations.migrate(c);
+            onlyUsedIndexes(c);
+            listsFollowTheNameIndex(c);
+            lookupsSearchByKey(c);
+        }
+        System.out.println("SchemaMigrationsTest: OK");
+    }
+
+    static void onlyUsedIndexes(Connection c) throws SQLException {
+        Set<String> indexes = new TreeSet<>();
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'patient'");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) indexes.add(rs.getString(1));
+        }
+        check(indexes.equals(Set.of("idx_patient_nome", "sqlite_autoindex_patient_1")),
+                "índices em patient: " + indexes);
+    }
+
+    /** Listas completas e paginadas: percorrem um índice por nome, sem ordenar à parte. */
+    static void listsFollowTheNameIndex(Connection c) throws SQLException {
+        for (String sql : List.of(PatientDAO.SQL_SELECT_ALL, PatientDAO.SQL_PAGE_FIRST, PatientDAO.SQL_PAGE_AFTER,
+                PatientDAO.SQL_SUMMARY_FIRST, PatientDAO.SQL_SUMMARY_AFTER)) {
+            List<String> plan = plan(c, sql);
+            check(plan.stream().anyMatch(d -> d.contains("USING INDEX idx_patient_nome")
+                            || d.contains("USING COVERING INDEX idx_patient_nome")),
+                    "sem idx_patient_nome: " + plan + " <- " + sql);
+            check(plan.stream().noneMatch(d -> d.contains("TEMP B-TREE")), "ordenação à parte: " + plan + " <- " + sql);
+        }
+    }
+
+    /** Procuras por id e por (nome, dataNascimento): SEARCH pela chave, nunca SCAN. */
+    static void lookupsSearchByKey(Connection c) throws SQLException {
+        for (String sql : List.of(PatientDAO.SQL_BY_ID, PatientDAO.SQL_ID_BY_NOME_DATA,
+                PatientDAO.SQL_UPDATE_BY_NOME_DATA, PatientDAO.SQL_UPDATE_IF_CHANGED, PatientDAO.SQL_DELETE_BY_NOME_DATA)) {
+            List<String> plan = plan(c, sql);
+            check(plan.stream().anyMatch(d -> d.startsWith("SEARCH patient")), "sem SEARCH: " + plan + " <- " + sql);
+            check(plan.stream().noneMatch(d -> d.startsWith("SCAN patient")), "varrimento: " + plan + " <- " + sql);
+        }
+    }
+
+    /** Colunas 'detail' do EXPLAIN QUERY PLAN (parâmetros por ligar contam como NULL). */
+    private static List<String> plan(Connection c, String sql) throws SQLException {
+        List<String> details = new ArrayList<>();
+        try (PreparedStatement ps = c.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) details.add(rs.getString("detail"));
+        }
+        return details;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,171 @@
+package server.service;
+
+import common.dto.ChangeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Entrega a subscritores congestionados: um push recusado tem de ser retomado quando a ligação
+ * volta a escoar, mesmo sem mais escritas. Corre com java (sai com erro se algum caso falhar).
+ */
+public final class ChangeBroadcasterTest {
+
+    /** Target que recusa os primeiros 'refusals' pushes; 'onRefuse' corre antes de cada recusa. */
+    private static final class CongestedTarget implements ChangeBroadcaster.Target {
+        final List<ChangeEvent> received = new CopyOnWriteArrayList<>();
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger refusals;
+        final AtomicReference<Runnable> onRefuse = new AtomicReference<>(() -> {});
+
+        CongestedTarget(int refusals) {
+            this.refusals = new AtomicInteger(refusals);
+        }
+
+        @Override
+        public boolean push(List<ChangeEvent> events) {
+            attempts.incrementAndGet();
+            if (refusals.getAndDecrement() > 0) {
+                onRefuse.get().run();
+                return false;
+            }
+            received.addAll(events);
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        congestedThenNoMoreWrites();
+        writableDuringRefusedPush();
+        refusedPushIsNotRetriedUntilWritable();
+        overflowWhileRefusedSendsResync();
+        concurrentPublishKeepsHighestVersion();
+        System.out.println("ChangeBroadcasterTest: OK");
+    }
+
+    /** Único evento recusado e nenhuma escrita depois: writable() entrega-o. */
+    static void congestedThenNoMoreWrites() throws Exception {
+        ChangeBroadcaster b = new ChangeBroadcaster(16, 0);
+        CongestedTarget t = new CongestedTarget(1);
+        ChangeBroadcaster.Subscription s = b.subscribe(t);
+        try {
+            b.publish(ChangeEvent.of(ChangeEvent.CREATED, 1, 1));
+            await(() -> t.attempts.get() == 1, "push recusado");
+            check(t.received.isEmpty(), "nada entregue enquanto congestionado");
+
+            s.writable();
+            await(() -> !t.received.isEmpty(), "entrega depois de writable()");
+            ChangeEvent e = t.received.get(0);
+            check(ChangeEvent.CREATED.equals(e.type) && e.id == 1 && e.version == 1, "esperava created #1 @v1, veio " + e);
+        } finally {
+            b.close();
+        }
+    }
+
+    /** writable() chega enquanto o push ainda está a ser recusado (drain em curso): não se perde. */
+    static void writableDuringRefusedPush() throws Exception {
+        ChangeBroadcaster b = new ChangeBroadcaster(16, 0);
+        CongestedTarget t = new CongestedTarget(1);
+        ChangeBroadcaster.Subscription s = b.subscribe(t);
+        t.onRefuse.set(s::writable);
+        try {
+            b.publish(ChangeEvent.of(ChangeEvent.UPDATED, 7, 3));
+            await(() -> !t.received.isEmpty(), "entrega sem mais escritas");
+            check(t.received.get(0).id == 7, "esperava o evento #7, veio " + t.received.get(0));
+        } finally {
+            b.close();
+        }
+    }
+
+    /** Sem writable() a subscrição não tenta em ciclo contra uma ligação congestionada. */
+    static void refusedPushIsNotRetriedUntilWritable() throws Exception {
+        ChangeBroadcaster b = new ChangeBroadcaster(16, 0);
+        CongestedTarget t = new CongestedTarget(Integer.MAX_VALUE);
+        b.subscribe(t);
+        try {
+            b.publish(ChangeEvent.of(ChangeEvent.DELETED, 2, 5));
+            await(() -> t.attempts.get() == 1, "push recusado");
+            TimeUnit.MILLISECONDS.sleep(200);
+            check(t.attempts.get() == 1, "tentativas sem writable(): " + t.attempts.get());
+        } finally {
+            b.close();
+        }
+    }
+
+    /** Com o lote recusado a fila enche: o que estava guardado é trocado por um resync. */
+    static void overflowWhileRefusedSendsResync() throws Exception {
+        ChangeBroadcaster b = new ChangeBroadcaster(2, 0);
+        CongestedTarget t = new CongestedTarget(Integer.MAX_VALUE);
+        ChangeBroadcaster.Subscription s = b.subscribe(t);
+        try {
+            b.publish(ChangeEvent.of(ChangeEvent.CREATED, 1, 1));
+            await(() -> t.attempts.get() >= 1, "push recusado");
+            for (int v = 2; v <= 5; v++) b.publish(ChangeEvent.of(ChangeEvent.CREATED, v, v));
+            await(() -> t.attempts.get() >= 2, "nova tentativa com novos eventos");
+            TimeUnit.MILLISECONDS.sleep(50);
+            t.refusals.set(0);
+            s.writable();
+            await(() -> !t.received.isEmpty(), "entrega depois de writable()");
+            ChangeEvent e = t.received.get(0);
+            check(ChangeEvent.RESYNC.equals(e.type) && e.version == 5, "esperava resync @v5, veio " + e);
+        } finally {
+            b.close();
+        }
+    }
+
+    /** Escritas concorrentes publicam fora de ordem: a versão nunca recua para uma mais baixa. */
+    static void concurrentPublishKeepsHighestVersion() throws Exception {
+        int threads = 8, perThread = 20_000;
+        for (int round = 0; round < 20; round++) {
+            ChangeBroadcaster b = new ChangeBroadcaster(16, 0);
+            try {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Thread> writers = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    int first = i;
+                    Thread w = new Thread(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        // versões intercaladas entre threads, como commits que terminam quase juntos
+                        for (int k = 0; k < perThread; k++) {
+                            long v = (long) k * threads + first + 1;
+                            b.publish(ChangeEvent.of(ChangeEvent.UPDATED, 1, v));
+                        }
+                    });
+                    writers.add(w);
+                    w.start();
+                }
+                start.countDown();
+                for (Thread w : writers) w.join();
+                long max = (long) perThread * threads;
+                check(b.version() == max, "esperava v" + max + ", ficou v" + b.version());
+            } finally {
+                b.close();
+            }
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void await(Condition c, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!c.holds()) {
+            if (System.nanoTime() > deadline) throw new AssertionError("timeout: " + what);
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}